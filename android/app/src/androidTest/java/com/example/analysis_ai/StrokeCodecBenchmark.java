@@ -0,0 +1,128 @@
+package com.example.analysis_ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-device micro-benchmark of the strokes channel codec against the map-based
+ * {@link StandardMessageCodec} path the method channels use. Both sides encode the same strokes
+ * once and then decode them repeatedly into what the renderer consumes: float arrays per stroke
+ * for the maps, a reused {@link StrokeBatch} for the binary codec. The JVM build in
+ * {@code android/benchmarks} covers everything but the wire decode, which needs the Flutter
+ * embedding:
+ * <pre>
+ * ./gradlew :app:connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.analysis_ai.StrokeCodecBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class StrokeCodecBenchmark {
+    private static final String TAG = "StrokeCodecBenchmark";
+    private static final int WARMUP_ITERATIONS = 200;
+
+    @Test
+    public void decodeStrokes() {
+        Map<String, Object> report = run(50, 200, 1000);
+        assertEquals(50, report.get("strokes"));
+        assertTrue((int) report.get("binaryBytes") < (int) report.get("mapBytes"));
+    }
+
+    /** Returns nanoseconds per decode and encoded sizes for both codecs. */
+    static Map<String, Object> run(int strokeCount, int pointsPerStroke, int iterations) {
+        List<Map<String, Object>> drawings = new ArrayList<>(strokeCount);
+        StrokeBatch batch = new StrokeBatch();
+        float[] points = new float[pointsPerStroke * 2];
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            List<Double> pointList = new ArrayList<>(points.length);
+            for (int i = 0; i < points.length; i++) {
+                points[i] = (stroke * 31 + i * 7) % 1000 / 1.5f;
+                pointList.add((double) points[i]);
+            }
+            Map<String, Object> drawing = new HashMap<>();
+            drawing.put("timestampMs", stroke * 40L);
+            drawing.put("type", "free");
+            drawing.put("points", pointList);
+            drawing.put("color", 0xFFFF0000L);
+            drawings.add(drawing);
+            batch.add(stroke * 40L, 0xFFFF0000, AnnotationCompositor.TYPE_FREE, points, 0, points.length);
+        }
+
+        ByteBuffer mapMessage = StandardMessageCodec.INSTANCE.encodeMessage(drawings);
+        // StandardMessageCodec leaves the position at the end; the limit is the size either way
+        int mapBytes = mapMessage.limit();
+        ByteBuffer binaryMessage = batch.encode();
+        int binaryBytes = binaryMessage.limit();
+
+        StrokeBatch decoded = new StrokeBatch();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decodeMaps(mapMessage, mapBytes);
+            decodeBinary(binaryMessage, decoded);
+        }
+        long mapStart = System.nanoTime();
+        float checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += decodeMaps(mapMessage, mapBytes);
+        }
+        long mapNs = (System.nanoTime() - mapStart) / iterations;
+        long binaryStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            checksum += decodeBinary(binaryMessage, decoded);
+        }
+        long binaryNs = (System.nanoTime() - binaryStart) / iterations;
+
+        Log.d(TAG, strokeCount + " strokes x " + pointsPerStroke + " points: map " + mapNs + " ns / "
+                + mapBytes + " B, binary " + binaryNs + " ns / " + binaryBytes + " B (checksum " + checksum + ")");
+        Map<String, Object> result = new HashMap<>();
+        result.put("strokes", strokeCount);
+        result.put("pointsPerStroke", pointsPerStroke);
+        result.put("iterations", iterations);
+        result.put("mapDecodeNs", mapNs);
+        result.put("binaryDecodeNs", binaryNs);
+        result.put("mapBytes", mapBytes);
+        result.put("binaryBytes", binaryBytes);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static float decodeMaps(ByteBuffer message, int size) {
+        ByteBuffer view = message.duplicate();
+        view.position(0);
+        view.limit(size);
+        List<Object> drawings = (List<Object>) StandardMessageCodec.INSTANCE.decodeMessage(view);
+        float sum = 0;
+        for (Object item : drawings) {
+            List<?> pointList = (List<?>) ((Map<String, Object>) item).get("points");
+            float[] points = new float[pointList.size()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = ((Number) pointList.get(i)).floatValue();
+            }
+            sum += points[points.length - 1];
+        }
+        return sum;
+    }
+
+    private static float decodeBinary(ByteBuffer message, StrokeBatch decoded) {
+        ByteBuffer view = message.duplicate();
+        view.position(0);
+        decoded.readFrom(view);
+        float sum = 0;
+        for (int stroke = 0; stroke < decoded.size(); stroke++) {
+            sum += decoded.getY(stroke, decoded.getPointCount(stroke) - 1);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.analysis_ai;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rasterizes the editor's drawings into a premultiplied RGBA overlay, matching what
+ * {@code FieldDrawingPainter} paints on screen: 8 px round-capped strokes, circle outlines,
+ * arrows with a filled head and the stick-figure player marker. Points arrive in the editor's
+ * logical coordinates and are scaled to the overlay size.
+ *
+ * <p>Plain Java with no Android dependency, so the output can be checked on a desktop JVM.
+ */
+class AnnotationCompositor {
+    static final int TYPE_FREE = 0;
+    static final int TYPE_CIRCLE = 1;
+    static final int TYPE_ARROW = 2;
+    static final int TYPE_PLAYER = 3;
+
+    private static final float STROKE_WIDTH = 8f;
+    private static final float ARROW_SIZE = 20f;
+    private static final float PLAYER_SIZE = 30f;
+
+    /** One drawing: points as x0, y0, x1, y1, ... in editor coordinates, color as ARGB. */
+    static class Stroke {
+        final int type;
+        final float[] points;
+        final int color;
+
+        Stroke(int type, float[] points, int color) {
+            this.type = type;
+            this.points = points;
+            this.color = color;
+        }
+
+        /** Maps the Dart {@code DrawingMode} name; unknown modes return -1 and are skipped. */
+        static int typeOf(String mode) {
+            if (mode == null) return -1;
+            switch (mode) {
+                case "free":
+                    return TYPE_FREE;
+                case "circle":
+                    return TYPE_CIRCLE;
+                case "arrow":
+                    return TYPE_ARROW;
+                case "player":
+                    return TYPE_PLAYER;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    private final int width, height;
+    private final float scaleX, scaleY, scale;
+    // Premultiplied ARGB, row 0 at the top
+    private final int[] pixels;
+
+    AnnotationCompositor(int width, int height, float viewWidth, float viewHeight) {
+        this.width = width;
+        this.height = height;
+        this.scaleX = width / viewWidth;
+        this.scaleY = height / viewHeight;
+        this.scale = (scaleX + scaleY) / 2f;
+        this.pixels = new int[width * height];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /** Premultiplied ARGB pixels, row 0 at the top. */
+    int[] getPixels() {
+        return pixels;
+    }
+
+    void clear() {
+        Arrays.fill(pixels, 0);
+    }
+
+    void draw(List<Stroke> strokes) {
+        for (Stroke stroke : strokes) {
+            draw(stroke);
+        }
+    }
+
+    void draw(Stroke stroke) {
+        float[] p = stroke.points;
+        float halfWidth = STROKE_WIDTH * scale / 2f;
+        switch (stroke.type) {
+            case TYPE_FREE:
+                for (int i = 0; i + 3 < p.length; i += 2) {
+                    drawSegment(x(p[i]), y(p[i + 1]), x(p[i + 2]), y(p[i + 3]), halfWidth, stroke.color);
+                }
+                break;
+            case TYPE_CIRCLE:
+                if (p.length >= 4) {
+                    float cx = x(p[0]), cy = y(p[1]);
+                    float radius = (float) Math.hypot(x(p[2]) - cx, y(p[3]) - cy);
+                    drawRing(cx, cy, radius, halfWidth, stroke.color);
+                }
+                break;
+            case TYPE_ARROW:
+                if (p.length >= 4) {
+                    drawArrow(x(p[0]), y(p[1]), x(p[2]), y(p[3]), halfWidth, stroke.color);
+                }
+                break;
+            case TYPE_PLAYER:
+                if (p.length >= 2) {
+                    drawPlayer(x(p[0]), y(p[1]), halfWidth, stroke.color);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Writes the overlay as premultiplied RGBA bytes, bottom row first as GL textures expect. */
+    void copyRgbaTo(ByteBuffer target) {
+        target.clear();
+        for (int row = height - 1; row >= 0; row--) {
+            int offset = row * width;
+            for (int column = 0; column < width; column++) {
+                int argb = pixels[offset + column];
+                target.put((byte) (argb >>> 16));
+                target.put((byte) (argb >>> 8));
+                target.put((byte) argb);
+                target.put((byte) (argb >>> 24));
+            }
+        }
+        target.flip();
+    }
+
+    private float x(float value) {
+        return value * scaleX;
+    }
+
+    private float y(float value) {
+        return value * scaleY;
+    }
+
+    private void drawArrow(float x0, float y0, float x1, float y1, float halfWidth, int color) {
+        drawSegment(x0, y0, x1, y1, halfWidth, color);
+        double angle = Math.atan2(y1 - y0, x1 - x0);
+        float size = ARROW_SIZE * scale;
+        fillTriangle(x1, y1,
+                (float) (x1 - size * Math.cos(angle - Math.PI / 6)), (float) (y1 - size * Math.sin(angle - Math.PI / 6)),
+                (float) (x1 - size * Math.cos(angle + Math.PI / 6)), (float) (y1 - size * Math.sin(angle + Math.PI / 6)),
+                color);
+    }
+
+    private void drawPlayer(float x, float y, float halfWidth, int color) {
+        float size = PLAYER_SIZE * scale;
+        fillCircle(x, y, size * 0.2f, color);
+        drawSegment(x, y + size * 0.2f, x, y + size * 0.8f, halfWidth, color);
+        drawSegment(x - size * 0.3f, y + size * 0.4f, x + size * 0.3f, y + size * 0.4f, halfWidth, color);
+        drawSegment(x - size * 0.2f, y + size * 0.8f, x, y + size * 1.2f, halfWidth, color);
+        drawSegment(x + size * 0.2f, y + size * 0.8f, x, y + size * 1.2f, halfWidth, color);
+    }
+
+    /** Round-capped line: coverage falls off over one pixel at distance halfWidth from the segment. */
+    private void drawSegment(float x0, float y0, float x1, float y1, float halfWidth, int color) {
+        float dx = x1 - x0, dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        int minX = clampX((int) Math.floor(Math.min(x0, x1) - halfWidth - 1));
+        int maxX = clampX((int) Math.ceil(Math.max(x0, x1) + halfWidth + 1));
+        int minY = clampY((int) Math.floor(Math.min(y0, y1) - halfWidth - 1));
+        int maxY = clampY((int) Math.ceil(Math.max(y0, y1) + halfWidth + 1));
+        for (int py = minY; py <= maxY; py++) {
+            float cy = py + 0.5f;
+            for (int px = minX; px <= maxX; px++) {
+                float cx = px + 0.5f;
+                float t = lengthSquared > 0 ? ((cx - x0) * dx + (cy - y0) * dy) / lengthSquared : 0f;
+                t = Math.max(0f, Math.min(1f, t));
+                float distance = (float) Math.hypot(cx - (x0 + t * dx), cy - (y0 + t * dy));
+                blend(px, py, color, halfWidth + 0.5f - distance);
+            }
+        }
+    }
+
+    private void drawRing(float cx, float cy, float radius, float halfWidth, int color) {
+        float outer = radius + halfWidth + 1;
+        int minX = clampX((int) Math.floor(cx - outer)), maxX = clampX((int) Math.ceil(cx + outer));
+        int minY = clampY((int) Math.floor(cy - outer)), maxY = clampY((int) Math.ceil(cy + outer));
+        for (int py = minY; py <= maxY; py++) {
+            for (int px = minX; px <= maxX; px++) {
+                float distance = Math.abs((float) Math.hypot(px + 0.5f - cx, py + 0.5f - cy) - radius);
+                blend(px, py, color, halfWidth + 0.5f - distance);
+            }
+        }
+    }
+
+    private void fillCircle(float cx, float cy, float radius, int color) {
+        int minX = clampX((int) Math.floor(cx - radius - 1)), maxX = clampX((int) Math.ceil(cx + radius + 1));
+        int minY = clampY((int) Math.floor(cy - radius - 1)), maxY = clampY((int) Math.ceil(cy + radius + 1));
+        for (int py = minY; py <= maxY; py++) {
+            for (int px = minX; px <= maxX; px++) {
+                float distance = (float) Math.hypot(px + 0.5f - cx, py + 0.5f - cy);
+                blend(px, py, color, radius + 0.5f - distance);
+            }
+        }
+    }
+
+    private void fillTriangle(float x0, float y0, float x1, float y1, float x2, float y2, int color) {
+        // Wind counter-clockwise so every edge distance is positive inside
+        if ((x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0) < 0) {
+            float tx = x1, ty = y1;
+            x1 = x2;
+            y1 = y2;
+            x2 = tx;
+            y2 = ty;
+        }
+        int minX = clampX((int) Math.floor(Math.min(x0, Math.min(x1, x2)) - 1));
+        int maxX = clampX((int) Math.ceil(Math.max(x0, Math.max(x1, x2)) + 1));
+        int minY = clampY((int) Math.floor(Math.min(y0, Math.min(y1, y2)) - 1));
+        int maxY = clampY((int) Math.ceil(Math.max(y0, Math.max(y1, y2)) + 1));
+        for (int py = minY; py <= maxY; py++) {
+            float cy = py + 0.5f;
+            for (int px = minX; px <= maxX; px++) {
+                float cx = px + 0.5f;
+                float inside = Math.min(edgeDistance(x0, y0, x1, y1, cx, cy),
+                        Math.min(edgeDistance(x1, y1, x2, y2, cx, cy), edgeDistance(x2, y2, x0, y0, cx, cy)));
+                blend(px, py, color, inside + 0.5f);
+            }
+        }
+    }
+
+    private static float edgeDistance(float ax, float ay, float bx, float by, float px, float py) {
+        float length = (float) Math.hypot(bx - ax, by - ay);
+        if (length == 0) return -1f;
+        return ((bx - ax) * (py - ay) - (by - ay) * (px - ax)) / length;
+    }
+
+    /** Source-over blend of {@code color} at the given coverage onto the premultiplied pixel. */
+    private void blend(int px, int py, int color, float coverage) {
+        if (coverage <= 0f) return;
+        float alpha = Math.min(1f, coverage) * ((color >>> 24) / 255f);
+        if (alpha <= 0f) return;
+        int index = py * width + px;
+        int dst = pixels[index];
+        float inverse = 1f - alpha;
+        int a = Math.round(alpha * 255 + ((dst >>> 24) & 0xff) * inverse);
+        int r = Math.round(((color >>> 16) & 0xff) * alpha + ((dst >>> 16) & 0xff) * inverse);
+        int g = Math.round(((color >>> 8) & 0xff) * alpha + ((dst >>> 8) & 0xff) * inverse);
+        int b = Math.round((color & 0xff) * alpha + (dst & 0xff) * inverse);
+        pixels[index] = (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private int clampX(int value) {
+        return Math.max(0, Math.min(width - 1, value));
+    }
+
+    private int clampY(int value) {
+        return Math.max(0, Math.min(height - 1, value));
+    }
+}
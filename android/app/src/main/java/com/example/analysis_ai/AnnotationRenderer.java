@@ -0,0 +1,596 @@
+package com.example.analysis_ai;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Offline counterpart of {@link ScreenRecordService}: burns the editor's drawings into a video
+ * without playing it back. The source is decoded straight into an OES texture, drawn into the
+ * encoder's input surface with the {@link AnnotationCompositor} overlay blended on top during
+ * each {@link AnnotationTimeline} hold, and the source audio is copied with the same time shift.
+ * Nothing waits on a clock, so a clip renders as fast as the codecs run.
+ *
+ * <p>The overlay is rasterized once per hold on the CPU and uploaded as one texture; every
+ * other frame stays on the GPU from decoder to encoder.
+ */
+class AnnotationRenderer {
+    private static final String TAG = "AnnotationRenderer";
+    private static final long CODEC_TIMEOUT_US = 10_000;
+    private static final long FRAME_TIMEOUT_MS = 2500;
+    private static final long FINISH_TIMEOUT_S = 30;
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VIDEO_VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTexCoord = (uTexMatrix * vec4(aTexCoord, 0.0, 1.0)).xy;\n" +
+            "}\n";
+
+    private static final String VIDEO_FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTexCoord);\n" +
+            "}\n";
+
+    private static final String OVERLAY_VERTEX_SHADER =
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "}\n";
+
+    private static final String OVERLAY_FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D sOverlay;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sOverlay, vTexCoord);\n" +
+            "}\n";
+
+    private static final float[] QUAD_VERTICES = {-1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f};
+    private static final float[] QUAD_TEX_COORDS = {0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f};
+
+    interface Callback {
+        void onSuccess(String outputPath);
+
+        void onError(Exception e);
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AnnotationRender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    AnnotationRenderer(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Renders {@code sourcePath} with the timeline's holds and drawings into {@code outputPath}.
+     * Drawing coordinates are relative to a {@code viewWidth} x {@code viewHeight} editor view
+     * that showed the video stretched to fill it.
+     */
+    void render(String sourcePath, String outputPath, AnnotationTimeline timeline,
+                float viewWidth, float viewHeight, String preset, Callback callback) {
+        executor.execute(() -> {
+            long startNs = System.nanoTime();
+            try (RenderJob job = new RenderJob(sourcePath, outputPath, timeline, viewWidth, viewHeight, null)) {
+                job.run(preset);
+                Log.d(TAG, "Rendered " + outputPath + " in " + (System.nanoTime() - startNs) / 1_000_000 + " ms");
+                mainHandler.post(() -> callback.onSuccess(outputPath));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error rendering annotations: " + e.getMessage());
+                new File(outputPath).delete();
+                mainHandler.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    /**
+     * Re-encodes {@code sourcePath} with {@code preset} and nothing drawn on it, on the calling
+     * thread, as editing proxies need. Throws {@link VideoExporter.CancelledException} once
+     * {@code cancelled} is set.
+     */
+    void transcode(String sourcePath, String outputPath, String preset, AtomicBoolean cancelled) throws IOException {
+        AnnotationTimeline timeline = new AnnotationTimeline(0, 0, Collections.emptyList());
+        try (RenderJob job = new RenderJob(sourcePath, outputPath, timeline, 1, 1, cancelled)) {
+            job.run(preset);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** One render: owns every codec, extractor and the EGL context until closed. */
+    private class RenderJob implements AutoCloseable, SurfaceTexture.OnFrameAvailableListener {
+        private final String sourcePath;
+        private final String outputPath;
+        private final AnnotationTimeline timeline;
+        private final float viewWidth, viewHeight;
+        private final AtomicBoolean cancelled;
+        private final Object frameLock = new Object();
+        private final float[] texMatrix = new float[16];
+        private boolean frameAvailable;
+
+        private HandlerThread codecThread;
+        private MediaExtractor videoExtractor;
+        private MediaExtractor audioExtractor;
+        private MediaCodec decoder;
+        private VideoEncoder encoder;
+        private MuxerWriter writer;
+        private SurfaceTexture surfaceTexture;
+        private Surface decoderSurface;
+        // Only when the timeline has drawings; a proxy or a pauses-only render needs neither
+        private AnnotationCompositor compositor;
+        private ByteBuffer overlayPixels;
+        private int outputWidth, outputHeight;
+
+        private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+        private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+        private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+        private int videoProgram, overlayProgram;
+        private int videoTexture, overlayTexture;
+        private FloatBuffer vertexBuffer, videoTexCoordBuffer, overlayTexCoordBuffer;
+
+        private MediaFormat audioFormat;
+        private ByteBuffer audioBuffer;
+        private boolean audioDone = true;
+        private long lastVideoOutputUs;
+
+        /** @param cancelled stops the render when set, or null */
+        RenderJob(String sourcePath, String outputPath, AnnotationTimeline timeline,
+                  float viewWidth, float viewHeight, AtomicBoolean cancelled) {
+            this.sourcePath = sourcePath;
+            this.outputPath = outputPath;
+            this.timeline = timeline;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.cancelled = cancelled;
+        }
+
+        void run(String preset) throws IOException {
+            videoExtractor = new MediaExtractor();
+            videoExtractor.setDataSource(sourcePath);
+            int videoTrack = selectTrack(videoExtractor, "video/");
+            if (videoTrack < 0) throw new IOException("No video track in " + sourcePath);
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrack);
+            int rotation = readRotation();
+            int codedWidth = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int codedHeight = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            boolean sideways = rotation == 90 || rotation == 270;
+            int displayWidth = sideways ? codedHeight : codedWidth;
+            int displayHeight = sideways ? codedWidth : codedHeight;
+
+            codecThread = new HandlerThread("AnnotationCodec");
+            codecThread.start();
+            Handler codecHandler = new Handler(codecThread.getLooper());
+
+            EncoderProfiles profiles = EncoderProfiles.get(context);
+            EncoderProfiles.RecordingProfile profile = profiles.select(preset, displayWidth, displayHeight);
+            encoder = new VideoEncoder(profile, codecHandler);
+            Surface encoderSurface;
+            try {
+                encoderSurface = encoder.prepare();
+            } catch (IOException e) {
+                if (profile.mimeType.equals(MediaFormat.MIMETYPE_VIDEO_AVC)) throw e;
+                Log.w(TAG, "Falling back to H.264: " + e.getMessage());
+                profile = profiles.fallbackToAvc(preset, displayWidth, displayHeight);
+                encoder = new VideoEncoder(profile, codecHandler);
+                encoderSurface = encoder.prepare();
+            }
+            Log.d(TAG, "Rendering " + sourcePath + " (" + displayWidth + "x" + displayHeight
+                    + ", rotation " + rotation + ") with " + profile);
+
+            setUpEgl(encoderSurface);
+            setUpGl(rotation);
+            outputWidth = profile.width;
+            outputHeight = profile.height;
+            if (timeline.hasStrokes()) {
+                compositor = new AnnotationCompositor(profile.width, profile.height, viewWidth, viewHeight);
+                overlayPixels = ByteBuffer.allocateDirect(profile.width * profile.height * 4).order(ByteOrder.nativeOrder());
+            }
+
+            surfaceTexture = new SurfaceTexture(videoTexture);
+            surfaceTexture.setOnFrameAvailableListener(this, codecHandler);
+            decoderSurface = new Surface(surfaceTexture);
+            decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+            // rotatedTexCoords already turns the picture upright; a decoder told the rotation would
+            // rotate it once more through the SurfaceTexture transform
+            if (inputFormat.containsKey(MediaFormat.KEY_ROTATION)) {
+                inputFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
+            }
+            decoder.configure(inputFormat, decoderSurface, null, 0);
+
+            CountDownLatch finished = new CountDownLatch(1);
+            AtomicBoolean success = new AtomicBoolean(false);
+            boolean withAudio = openAudio();
+            writer = new MuxerWriter(outputPath, withAudio, (paths, ok) -> {
+                success.set(ok);
+                finished.countDown();
+            });
+            if (withAudio) {
+                writer.addTrack(MuxerWriter.TRACK_AUDIO, audioFormat);
+            }
+
+            videoExtractor.selectTrack(videoTrack);
+            videoExtractor.seekTo(timeline.getStartUs(), MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            decoder.start();
+            encoder.start(writer);
+
+            decodeFrames(1_000_000L / profile.frameRate);
+
+            encoder.signalEndOfStream();
+            try {
+                if (withAudio) {
+                    // Audio must not pile up in the writer before the encoder has reported its format
+                    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(FINISH_TIMEOUT_S);
+                    while (!writer.isStarted() && finished.getCount() > 0 && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(10);
+                    }
+                    copyAudio(Long.MAX_VALUE);
+                    writer.endTrack(MuxerWriter.TRACK_AUDIO);
+                }
+                if (!finished.await(FINISH_TIMEOUT_S, TimeUnit.SECONDS)) {
+                    writer.abort();
+                    throw new IOException("Timed out finalizing " + outputPath);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while finalizing", e);
+            }
+            if (!success.get()) throw new IOException("Muxer failed for " + outputPath);
+        }
+
+        private void decodeFrames(long frameIntervalUs) throws IOException {
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (true) {
+                if (cancelled != null && cancelled.get()) {
+                    throw new VideoExporter.CancelledException();
+                }
+                if (!inputDone) {
+                    int inputIndex = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = decoder.getInputBuffer(inputIndex);
+                        int size = videoExtractor.readSampleData(input, 0);
+                        long sampleTimeUs = videoExtractor.getSampleTime();
+                        if (size < 0 || timeline.isPastEnd(sampleTimeUs)) {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(inputIndex, 0, size, sampleTimeUs, 0);
+                            videoExtractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outputIndex < 0) continue;
+                long sourceUs = info.presentationTimeUs;
+                boolean render = info.size > 0 && !timeline.isBeforeStart(sourceUs) && !timeline.isPastEnd(sourceUs);
+                decoder.releaseOutputBuffer(outputIndex, render);
+                if (render) {
+                    awaitFrame();
+                    surfaceTexture.updateTexImage();
+                    surfaceTexture.getTransformMatrix(texMatrix);
+                    drawSourceFrame(sourceUs, frameIntervalUs);
+                    copyAudio(lastVideoOutputUs);
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    Log.d(TAG, "Decoder end of stream");
+                    return;
+                }
+            }
+        }
+
+        /** Draws one decoded frame, repeated with the overlay through any hold that falls on it. */
+        private void drawSourceFrame(long sourceUs, long frameIntervalUs) {
+            long outputUs = timeline.frameOutputUs(sourceUs);
+            List<AnnotationCompositor.Stroke> strokes = new ArrayList<>();
+            long holdUs = 0;
+            AnnotationTimeline.Hold hold;
+            while ((hold = timeline.takeHold(sourceUs)) != null) {
+                strokes.addAll(hold.strokes);
+                holdUs += hold.durationUs;
+            }
+            if (holdUs > 0) {
+                boolean withOverlay = !strokes.isEmpty();
+                if (withOverlay) {
+                    compositor.clear();
+                    compositor.draw(strokes);
+                    compositor.copyRgbaTo(overlayPixels);
+                    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTexture);
+                    GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, compositor.getWidth(),
+                            compositor.getHeight(), 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, overlayPixels);
+                }
+                for (long offsetUs = 0; offsetUs < holdUs; offsetUs += frameIntervalUs) {
+                    present(outputUs + offsetUs, withOverlay);
+                }
+                outputUs += holdUs;
+            }
+            present(outputUs, false);
+        }
+
+        private void present(long outputUs, boolean withOverlay) {
+            GLES20.glViewport(0, 0, outputWidth, outputHeight);
+            drawQuad(videoProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, videoTexture, videoTexCoordBuffer, texMatrix);
+            if (withOverlay) {
+                GLES20.glEnable(GLES20.GL_BLEND);
+                // The overlay is premultiplied
+                GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                drawQuad(overlayProgram, GLES20.GL_TEXTURE_2D, overlayTexture, overlayTexCoordBuffer, null);
+                GLES20.glDisable(GLES20.GL_BLEND);
+            }
+            EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, outputUs * 1000);
+            EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+            lastVideoOutputUs = outputUs;
+        }
+
+        private void drawQuad(int program, int target, int texture, FloatBuffer texCoords, float[] matrix) {
+            GLES20.glUseProgram(program);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(target, texture);
+            if (matrix != null) {
+                GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(program, "uTexMatrix"), 1, false, matrix, 0);
+            }
+            int position = GLES20.glGetAttribLocation(program, "aPosition");
+            int texCoord = GLES20.glGetAttribLocation(program, "aTexCoord");
+            GLES20.glEnableVertexAttribArray(position);
+            GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
+            GLES20.glEnableVertexAttribArray(texCoord);
+            GLES20.glVertexAttribPointer(texCoord, 2, GLES20.GL_FLOAT, false, 0, texCoords);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            GLES20.glDisableVertexAttribArray(position);
+            GLES20.glDisableVertexAttribArray(texCoord);
+        }
+
+        /** Copies source audio up to {@code untilOutputUs}, shifted by the holds before each sample. */
+        private void copyAudio(long untilOutputUs) {
+            if (audioDone || !writer.isStarted()) return;
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            while (true) {
+                long sampleTimeUs = audioExtractor.getSampleTime();
+                if (sampleTimeUs < 0 || timeline.isPastEnd(sampleTimeUs)) {
+                    audioDone = true;
+                    return;
+                }
+                long outputUs = timeline.toOutputUs(sampleTimeUs);
+                if (outputUs > untilOutputUs) return;
+                int size = audioExtractor.readSampleData(audioBuffer, 0);
+                if (size > 0 && !timeline.isBeforeStart(sampleTimeUs)) {
+                    int flags = (audioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    info.set(0, size, outputUs, flags);
+                    writer.writeSample(MuxerWriter.TRACK_AUDIO, audioBuffer, info);
+                }
+                audioExtractor.advance();
+            }
+        }
+
+        private boolean openAudio() throws IOException {
+            audioExtractor = new MediaExtractor();
+            audioExtractor.setDataSource(sourcePath);
+            int audioTrack = selectTrack(audioExtractor, "audio/");
+            if (audioTrack < 0) return false;
+            audioFormat = audioExtractor.getTrackFormat(audioTrack);
+            int maxSize = audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                    ? audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 256 * 1024;
+            audioBuffer = ByteBuffer.allocateDirect(maxSize);
+            audioExtractor.selectTrack(audioTrack);
+            audioExtractor.seekTo(timeline.getStartUs(), MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            audioDone = false;
+            return true;
+        }
+
+        private int readRotation() {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(sourcePath);
+                String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+                return rotation != null ? Integer.parseInt(rotation) : 0;
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Unable to read rotation: " + e.getMessage());
+                return 0;
+            } finally {
+                try {
+                    retriever.release();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error releasing retriever: " + e.getMessage());
+                }
+            }
+        }
+
+        private void awaitFrame() throws IOException {
+            synchronized (frameLock) {
+                long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+                while (!frameAvailable) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) throw new IOException("Timed out waiting for decoded frame");
+                    try {
+                        frameLock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while rendering", e);
+                    }
+                }
+                frameAvailable = false;
+            }
+        }
+
+        @Override
+        public void onFrameAvailable(SurfaceTexture st) {
+            synchronized (frameLock) {
+                frameAvailable = true;
+                frameLock.notifyAll();
+            }
+        }
+
+        private void setUpEgl(Surface encoderSurface) {
+            eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+            int[] version = new int[2];
+            if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+                throw new IllegalStateException("Unable to initialize EGL14");
+            }
+            int[] configAttributes = {
+                    EGL14.EGL_RED_SIZE, 8,
+                    EGL14.EGL_GREEN_SIZE, 8,
+                    EGL14.EGL_BLUE_SIZE, 8,
+                    EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                    EGL_RECORDABLE_ANDROID, 1,
+                    EGL14.EGL_NONE
+            };
+            EGLConfig[] configs = new EGLConfig[1];
+            int[] numConfigs = new int[1];
+            if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, numConfigs, 0)
+                    || numConfigs[0] == 0) {
+                throw new IllegalStateException("No recordable EGL config");
+            }
+            int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+            eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+            int[] surfaceAttributes = {EGL14.EGL_NONE};
+            eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, configs[0], encoderSurface, surfaceAttributes, 0);
+            if (eglContext == EGL14.EGL_NO_CONTEXT || eglSurface == EGL14.EGL_NO_SURFACE) {
+                throw new IllegalStateException("Unable to create EGL context or surface");
+            }
+            EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+        }
+
+        private void setUpGl(int rotation) {
+            videoProgram = CropRenderer.createProgram(VIDEO_VERTEX_SHADER, VIDEO_FRAGMENT_SHADER);
+            overlayProgram = CropRenderer.createProgram(OVERLAY_VERTEX_SHADER, OVERLAY_FRAGMENT_SHADER);
+            int[] textures = new int[2];
+            GLES20.glGenTextures(2, textures, 0);
+            videoTexture = textures[0];
+            overlayTexture = textures[1];
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, videoTexture);
+            setLinearClamped(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTexture);
+            setLinearClamped(GLES20.GL_TEXTURE_2D);
+            vertexBuffer = CropRenderer.createFloatBuffer(QUAD_VERTICES);
+            videoTexCoordBuffer = CropRenderer.createFloatBuffer(rotatedTexCoords(rotation));
+            overlayTexCoordBuffer = CropRenderer.createFloatBuffer(QUAD_TEX_COORDS);
+        }
+
+        private void setLinearClamped(int target) {
+            GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        }
+
+        @Override
+        public void close() {
+            if (decoder != null) {
+                try {
+                    decoder.stop();
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Error stopping decoder: " + e.getMessage());
+                }
+                decoder.release();
+            }
+            if (encoder != null) encoder.release();
+            if (writer != null) writer.release();
+            if (videoExtractor != null) videoExtractor.release();
+            if (audioExtractor != null) audioExtractor.release();
+            if (decoderSurface != null) decoderSurface.release();
+            if (surfaceTexture != null) {
+                surfaceTexture.setOnFrameAvailableListener(null);
+                surfaceTexture.release();
+            }
+            if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+                if (videoProgram != 0) GLES20.glDeleteProgram(videoProgram);
+                if (overlayProgram != 0) GLES20.glDeleteProgram(overlayProgram);
+                if (videoTexture != 0) GLES20.glDeleteTextures(2, new int[]{videoTexture, overlayTexture}, 0);
+                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+                EGL14.eglDestroyContext(eglDisplay, eglContext);
+                EGL14.eglReleaseThread();
+                EGL14.eglTerminate(eglDisplay);
+                eglDisplay = EGL14.EGL_NO_DISPLAY;
+            }
+            if (codecThread != null) codecThread.quitSafely();
+        }
+    }
+
+    private static int selectTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Texture coordinates that undo the container's rotation, so the output is upright and the
+     * overlay lines up with what the editor showed. Rotation is clockwise, as stored in the file.
+     */
+    private static float[] rotatedTexCoords(int rotation) {
+        float[] coords = new float[QUAD_TEX_COORDS.length];
+        for (int i = 0; i < coords.length; i += 2) {
+            float u = QUAD_TEX_COORDS[i], v = QUAD_TEX_COORDS[i + 1];
+            switch (rotation) {
+                case 90:
+                    coords[i] = 1f - v;
+                    coords[i + 1] = u;
+                    break;
+                case 180:
+                    coords[i] = 1f - u;
+                    coords[i + 1] = 1f - v;
+                    break;
+                case 270:
+                    coords[i] = v;
+                    coords[i + 1] = 1f - u;
+                    break;
+                default:
+                    coords[i] = u;
+                    coords[i + 1] = v;
+                    break;
+            }
+        }
+        return coords;
+    }
+}
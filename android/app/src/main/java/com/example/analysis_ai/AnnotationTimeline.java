@@ -0,0 +1,165 @@
+package com.example.analysis_ai;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps source video time onto the rendered output. Every pause the analyst made becomes a hold:
+ * the first source frame at or after the pause position is repeated for the pause duration with
+ * the drawings made at that position on top, and everything after it moves later by as much.
+ * Drawings made where there was no pause get a hold of {@link #DEFAULT_HOLD_MS}.
+ *
+ * <p>Video frames walk the holds in order through {@link #takeHold}; audio, which has no frames
+ * to hold, uses the stateless {@link #toOutputUs}. Plain Java, like {@link AnnotationCompositor}.
+ */
+class AnnotationTimeline {
+    static final long DEFAULT_HOLD_MS = 3000;
+
+    static class Hold {
+        final long positionUs;
+        final long durationUs;
+        final List<AnnotationCompositor.Stroke> strokes;
+
+        Hold(long positionUs, long durationUs, List<AnnotationCompositor.Stroke> strokes) {
+            this.positionUs = positionUs;
+            this.durationUs = durationUs;
+            this.strokes = strokes;
+        }
+    }
+
+    private final long startUs;
+    private final long endUs;
+    private final List<Hold> holds;
+    private int nextHold;
+    private long consumedUs;
+
+    /** @param endUs exclusive end of the source range, or 0 for the end of the video */
+    AnnotationTimeline(long startUs, long endUs, List<Hold> holds) {
+        this.startUs = startUs;
+        this.endUs = endUs;
+        List<Hold> inRange = new ArrayList<>();
+        for (Hold hold : holds) {
+            if (hold.positionUs >= startUs && (endUs <= 0 || hold.positionUs < endUs)) {
+                inRange.add(hold);
+            }
+        }
+        Collections.sort(inRange, (a, b) -> Long.compare(a.positionUs, b.positionUs));
+        this.holds = Collections.unmodifiableList(inRange);
+    }
+
+    /**
+     * Builds the timeline from the editor state as sent over the channel: {@code pauses} as
+     * {positionMs, durationMs} and {@code drawings} as {timestampMs, type, points, color}, with
+     * points flattened to x0, y0, x1, y1, ...
+     */
+    static AnnotationTimeline fromArguments(long startMs, long endMs, List<Map<String, Object>> pauses,
+                                            List<Map<String, Object>> drawings) {
+        TreeMap<Long, List<AnnotationCompositor.Stroke>> strokesAt = new TreeMap<>();
+        if (drawings != null) {
+            for (Map<String, Object> drawing : drawings) {
+                int type = AnnotationCompositor.Stroke.typeOf((String) drawing.get("type"));
+                Object rawPoints = drawing.get("points");
+                if (type < 0 || !(rawPoints instanceof List)) continue;
+                List<?> pointList = (List<?>) rawPoints;
+                float[] points = new float[pointList.size()];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = ((Number) pointList.get(i)).floatValue();
+                }
+                long timestampMs = longValue(drawing.get("timestampMs"));
+                int color = (int) longValue(drawing.get("color"));
+                strokesAt.computeIfAbsent(timestampMs, key -> new ArrayList<>())
+                        .add(new AnnotationCompositor.Stroke(type, points, color));
+            }
+        }
+        return build(startMs, endMs, pauses, strokesAt);
+    }
+
+    /** Same as {@link #fromArguments}, with the drawings streamed over the strokes channel. */
+    static AnnotationTimeline fromStrokes(long startMs, long endMs, List<Map<String, Object>> pauses,
+                                          StrokeBatch strokes) {
+        TreeMap<Long, List<AnnotationCompositor.Stroke>> strokesAt = new TreeMap<>();
+        for (int i = 0; i < strokes.size(); i++) {
+            strokesAt.computeIfAbsent(strokes.getTimestampMs(i), key -> new ArrayList<>())
+                    .addAll(strokes.toStrokes(i, i + 1));
+        }
+        return build(startMs, endMs, pauses, strokesAt);
+    }
+
+    private static AnnotationTimeline build(long startMs, long endMs, List<Map<String, Object>> pauses,
+                                            TreeMap<Long, List<AnnotationCompositor.Stroke>> strokesAt) {
+        TreeMap<Long, Long> holdDurations = new TreeMap<>();
+        if (pauses != null) {
+            for (Map<String, Object> pause : pauses) {
+                long positionMs = longValue(pause.get("positionMs"));
+                long durationMs = longValue(pause.get("durationMs"));
+                if (durationMs > 0) {
+                    holdDurations.merge(positionMs, durationMs, Long::sum);
+                }
+            }
+        }
+        for (Long timestampMs : strokesAt.keySet()) {
+            holdDurations.putIfAbsent(timestampMs, DEFAULT_HOLD_MS);
+        }
+        List<Hold> holds = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : holdDurations.entrySet()) {
+            List<AnnotationCompositor.Stroke> strokes = strokesAt.get(entry.getKey());
+            holds.add(new Hold(entry.getKey() * 1000, entry.getValue() * 1000,
+                    strokes != null ? strokes : Collections.emptyList()));
+        }
+        return new AnnotationTimeline(startMs * 1000, endMs * 1000, holds);
+    }
+
+    private static long longValue(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /** Whether any hold carries drawings, i.e. whether an overlay is ever needed. */
+    boolean hasStrokes() {
+        for (Hold hold : holds) {
+            if (!hold.strokes.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    long getStartUs() {
+        return startUs;
+    }
+
+    boolean isBeforeStart(long sourceUs) {
+        return sourceUs < startUs;
+    }
+
+    boolean isPastEnd(long sourceUs) {
+        return endUs > 0 && sourceUs >= endUs;
+    }
+
+    /**
+     * Returns the next hold due at a video frame with time {@code sourceUs}, or null. The frame
+     * should be shown at {@link #frameOutputUs} taken before this call, and repeated for the
+     * hold's duration; frames after it move later by as much.
+     */
+    Hold takeHold(long sourceUs) {
+        if (nextHold >= holds.size() || holds.get(nextHold).positionUs > sourceUs) return null;
+        Hold hold = holds.get(nextHold++);
+        consumedUs += hold.durationUs;
+        return hold;
+    }
+
+    /** Output time of a video frame, counting only the holds already taken. */
+    long frameOutputUs(long sourceUs) {
+        return sourceUs - startUs + consumedUs;
+    }
+
+    /** Output time of any sample, counting every hold at or before {@code sourceUs}. */
+    long toOutputUs(long sourceUs) {
+        long shiftUs = 0;
+        for (Hold hold : holds) {
+            if (hold.positionUs > sourceUs) break;
+            shiftUs += hold.durationUs;
+        }
+        return sourceUs - startUs + shiftUs;
+    }
+}
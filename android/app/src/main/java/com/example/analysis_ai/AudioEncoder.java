@@ -0,0 +1,186 @@
+package com.example.analysis_ai;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Microphone to AAC encoder. {@link AudioRecord#read} blocks, so capture and draining run in
+ * synchronous codec mode on a dedicated thread instead of the recording handler thread. While the
+ * {@link RecordingClock} is paused the microphone is still drained but nothing is encoded, and
+ * timestamps follow the number of encoded samples so they continue seamlessly on resume.
+ *
+ * <p>Between clips {@link #stop} releases the microphone but keeps the {@link AudioRecord} and
+ * codec instances, and {@link #prepare} reconfigures them for the next clip.
+ */
+class AudioEncoder implements Runnable {
+    private static final String TAG = "AudioEncoder";
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_AUDIO_AAC;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 1;
+    static final int BIT_RATE = 128 * 1000;
+    private static final int BYTES_PER_FRAME = 2 * CHANNEL_COUNT;
+    private static final long TIMEOUT_US = 10_000;
+
+    private final RecordingClock clock;
+    private AudioRecord audioRecord;
+    private MediaCodec codec;
+    private MuxerWriter writer;
+    private Thread thread;
+    private volatile boolean stopRequested;
+    private long startTimeUs;
+    private long framesRead;
+    private ByteBuffer discardBuffer;
+
+    AudioEncoder(RecordingClock clock) {
+        this.clock = clock;
+    }
+
+    void prepare() throws IOException {
+        if (audioRecord == null) {
+            int minBufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(minBufferSize * 2, 8192));
+            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                audioRecord.release();
+                audioRecord = null;
+                throw new IOException("AudioRecord failed to initialize");
+            }
+        }
+
+        MediaFormat format = MediaFormat.createAudioFormat(MIME_TYPE, SAMPLE_RATE, CHANNEL_COUNT);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 16384);
+        if (codec != null) {
+            codec.reset();
+        } else {
+            codec = MediaCodec.createEncoderByType(MIME_TYPE);
+        }
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Unable to configure audio encoder: " + e.getMessage(), e);
+        }
+    }
+
+    void start(MuxerWriter writer) {
+        this.writer = writer;
+        stopRequested = false;
+        framesRead = 0;
+        codec.start();
+        audioRecord.startRecording();
+        startTimeUs = System.nanoTime() / 1000;
+        thread = new Thread(this, "ScreenRecordAudio");
+        thread.start();
+    }
+
+    /** Queues end-of-stream; the writer is told once the encoder has drained. */
+    void signalEndOfStream() {
+        stopRequested = true;
+    }
+
+    /** Ends the clip and releases the microphone; {@link #prepare} arms the encoder again. */
+    void stop() {
+        stopRequested = true;
+        if (thread != null) {
+            try {
+                thread.join(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (audioRecord != null) {
+            try {
+                audioRecord.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error stopping AudioRecord: " + e.getMessage());
+            }
+        }
+    }
+
+    void release() {
+        stop();
+        if (audioRecord != null) {
+            audioRecord.release();
+            audioRecord = null;
+        }
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error stopping audio codec: " + e.getMessage());
+            }
+            codec.release();
+            codec = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        try {
+            while (true) {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        long ptsUs = startTimeUs + framesRead * 1_000_000L / SAMPLE_RATE;
+                        if (stopRequested) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else if (clock.isPaused()) {
+                            discardWhilePaused(input.capacity());
+                            codec.queueInputBuffer(inputIndex, 0, 0, ptsUs, 0);
+                        } else {
+                            int read = audioRecord.read(input, input.capacity());
+                            if (read > 0) {
+                                framesRead += read / BYTES_PER_FRAME;
+                                codec.queueInputBuffer(inputIndex, 0, read, ptsUs, 0);
+                            } else {
+                                codec.queueInputBuffer(inputIndex, 0, 0, ptsUs, 0);
+                            }
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    writer.addTrack(MuxerWriter.TRACK_AUDIO, codec.getOutputFormat());
+                } else if (outputIndex >= 0) {
+                    ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                    if (output != null) {
+                        writer.writeSample(MuxerWriter.TRACK_AUDIO, output, info);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        Log.d(TAG, "Audio end of stream");
+                        break;
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Audio encoding failed: " + e.getMessage());
+        }
+        writer.endTrack(MuxerWriter.TRACK_AUDIO);
+    }
+
+    private void discardWhilePaused(int size) {
+        if (discardBuffer == null || discardBuffer.capacity() < size) {
+            discardBuffer = ByteBuffer.allocateDirect(size);
+        }
+        discardBuffer.clear();
+        audioRecord.read(discardBuffer, size);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.analysis_ai;
+
+import android.content.Intent;
+
+/**
+ * What to record for one clip: the crop rectangle in logical pixels as sent by Flutter, the
+ * encoder preset, the optional segment limits and how long the clip is expected to run, which
+ * sizes the storage preflight. Travels in the service start intent for the
+ * first clip and through {@link ScreenRecordService.SessionBinder} for the following ones.
+ */
+class ClipRequest {
+    final int left, top, width, height;
+    final String preset;
+    final MuxerWriter.SegmentPolicy segmentPolicy;
+    final long expectedDurationMs;
+
+    /**
+     * @param expectedDurationMs 0 to plan the preflight with
+     *                           {@link ScreenRecordService#DEFAULT_EXPECTED_DURATION_MS} and
+     *                           preallocate nothing
+     */
+    ClipRequest(int left, int top, int width, int height, String preset,
+                MuxerWriter.SegmentPolicy segmentPolicy, long expectedDurationMs) {
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+        this.preset = preset;
+        this.segmentPolicy = segmentPolicy;
+        this.expectedDurationMs = expectedDurationMs;
+    }
+
+    void writeTo(Intent intent) {
+        intent.putExtra("clip", true);
+        intent.putExtra("left", left);
+        intent.putExtra("top", top);
+        intent.putExtra("width", width);
+        intent.putExtra("height", height);
+        intent.putExtra("segmentDurationMs", segmentPolicy.maxDurationUs / 1000);
+        intent.putExtra("segmentMaxBytes", segmentPolicy.maxBytes);
+        intent.putExtra("maxSegments", segmentPolicy.maxSegments);
+        intent.putExtra("preset", preset);
+        intent.putExtra("expectedDurationMs", expectedDurationMs);
+    }
+
+    /** Returns the clip carried by {@code intent}, or null if it only opens a session. */
+    static ClipRequest readFrom(Intent intent) {
+        if (!intent.getBooleanExtra("clip", false)) return null;
+        return new ClipRequest(
+                intent.getIntExtra("left", 0),
+                intent.getIntExtra("top", 0),
+                intent.getIntExtra("width", 1080),
+                intent.getIntExtra("height", 1920),
+                intent.getStringExtra("preset"),
+                new MuxerWriter.SegmentPolicy(
+                        intent.getLongExtra("segmentDurationMs", 0) * 1000,
+                        intent.getLongExtra("segmentMaxBytes", 0),
+                        intent.getIntExtra("maxSegments", 0)),
+                intent.getLongExtra("expectedDurationMs", 0));
+    }
+}
@@ -0,0 +1,339 @@
+package com.example.analysis_ai;
+
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Receives full-screen frames from the {@link android.hardware.display.VirtualDisplay} as an
+ * external OES texture and draws only the crop rectangle, scaled to the encoder size, into the
+ * encoder input surface. All methods must run on the recording handler thread, which owns the
+ * EGL context.
+ *
+ * <p>The context lives for the whole recording session on a 1x1 pbuffer; each clip only attaches
+ * its encoder surface with {@link #attachEncoder} and detaches it again when the clip ends.
+ */
+class CropRenderer implements SurfaceTexture.OnFrameAvailableListener {
+    private static final String TAG = "CropRenderer";
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n" +
+            "uniform vec4 uCrop;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = aPosition;\n" +
+            "    vec4 cropped = vec4(aTexCoord * uCrop.zw + uCrop.xy, 0.0, 1.0);\n" +
+            "    vTexCoord = (uTexMatrix * cropped).xy;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision mediump float;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(sTexture, vTexCoord);\n" +
+            "}\n";
+
+    private static final float[] QUAD_VERTICES = {-1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f};
+    private static final float[] QUAD_TEX_COORDS = {0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f};
+
+    private final int sourceWidth, sourceHeight;
+    private int outputWidth, outputHeight;
+    private final float[] crop = new float[4];
+    private final float[] texMatrix = new float[16];
+    private final Handler handler;
+    private final RecordingClock clock;
+    private final FloatBuffer vertexBuffer = createFloatBuffer(QUAD_VERTICES);
+    private final FloatBuffer texCoordBuffer = createFloatBuffer(QUAD_TEX_COORDS);
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig eglConfig;
+    private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+    private EGLSurface snapshotSurface = EGL14.EGL_NO_SURFACE;
+    private int snapshotWidth, snapshotHeight;
+    // Whether the texture holds a frame of the current clip
+    private boolean hasFrame;
+    private SurfaceTexture surfaceTexture;
+    private RecordingStats stats;
+    private Surface displaySurface;
+    private long minFrameIntervalNs;
+    private long lastFrameNs = -1;
+    private int program;
+    private int textureId;
+    private int positionLocation, texCoordLocation, texMatrixLocation, cropLocation;
+
+    CropRenderer(int sourceWidth, int sourceHeight, RecordingClock clock, Handler handler) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.handler = handler;
+        this.clock = clock;
+    }
+
+    /** Sets up EGL and returns the surface the virtual display renders to. */
+    Surface start() {
+        setUpEgl();
+        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordLocation = GLES20.glGetAttribLocation(program, "aTexCoord");
+        texMatrixLocation = GLES20.glGetUniformLocation(program, "uTexMatrix");
+        cropLocation = GLES20.glGetUniformLocation(program, "uCrop");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        textureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setDefaultBufferSize(sourceWidth, sourceHeight);
+        surfaceTexture.setOnFrameAvailableListener(this, handler);
+        displaySurface = new Surface(surfaceTexture);
+        return displaySurface;
+    }
+
+    /** Starts drawing {@code cropRect} into the given encoder surface at the encoder size. */
+    void attachEncoder(Surface encoderSurface, Rect cropRect, int outputWidth, int outputHeight,
+                       RecordingStats stats) {
+        detachEncoder();
+        this.stats = stats;
+        this.minFrameIntervalNs = 0;
+        this.lastFrameNs = -1;
+        this.hasFrame = false;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        // Texture space has its origin at the bottom left, screen space at the top left
+        crop[0] = (float) cropRect.left / sourceWidth;
+        crop[1] = 1f - (float) cropRect.bottom / sourceHeight;
+        crop[2] = (float) cropRect.width() / sourceWidth;
+        crop[3] = (float) cropRect.height() / sourceHeight;
+        int[] surfaceAttributes = {EGL14.EGL_NONE};
+        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, encoderSurface, surfaceAttributes, 0);
+        if (eglSurface == EGL14.EGL_NO_SURFACE) {
+            throw new IllegalStateException("Unable to create EGL window surface");
+        }
+        EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+        Log.d(TAG, "Cropping " + cropRect + " of " + sourceWidth + "x" + sourceHeight
+                + " to " + outputWidth + "x" + outputHeight);
+    }
+
+    /**
+     * Caps the rate frames are drawn into the encoder at, so it has fewer frames to encode on a
+     * hot device; 0 draws every frame the display produces.
+     */
+    void setMaxFrameRate(int frameRate) {
+        // A little slack, so frames of a display at exactly the cap are not dropped for jitter
+        minFrameIntervalNs = frameRate > 0 ? 1_000_000_000L * 9 / (frameRate * 10L) : 0;
+    }
+
+    /**
+     * Sets the surface {@link #drawSnapshot} draws into, usually a {@link SnapshotReader}'s, at
+     * the crop size; replaces an earlier one.
+     */
+    void attachSnapshotSurface(Surface surface, int width, int height) {
+        detachSnapshotSurface();
+        int[] surfaceAttributes = {EGL14.EGL_NONE};
+        snapshotSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, surface, surfaceAttributes, 0);
+        if (snapshotSurface == EGL14.EGL_NO_SURFACE) {
+            throw new IllegalStateException("Unable to create EGL snapshot surface");
+        }
+        snapshotWidth = width;
+        snapshotHeight = height;
+    }
+
+    void detachSnapshotSurface() {
+        // Never left current, drawSnapshot switches back right away
+        if (snapshotSurface == EGL14.EGL_NO_SURFACE) return;
+        EGL14.eglDestroySurface(eglDisplay, snapshotSurface);
+        snapshotSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    /**
+     * Draws the latest frame of the clip, cropped, into the snapshot surface, stamped with
+     * {@code timestampNs} so the reader can tell which image it is. Returns false when there is
+     * no surface or the clip has not produced a frame yet.
+     */
+    boolean drawSnapshot(long timestampNs) {
+        if (snapshotSurface == EGL14.EGL_NO_SURFACE || eglSurface == EGL14.EGL_NO_SURFACE || !hasFrame) {
+            return false;
+        }
+        EGL14.eglMakeCurrent(eglDisplay, snapshotSurface, snapshotSurface, eglContext);
+        drawFrame(snapshotWidth, snapshotHeight);
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, snapshotSurface, timestampNs);
+        boolean swapped = EGL14.eglSwapBuffers(eglDisplay, snapshotSurface);
+        EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+        return swapped;
+    }
+
+    void detachEncoder() {
+        stats = null;
+        if (eglSurface == EGL14.EGL_NO_SURFACE) return;
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+        EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        eglSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture st) {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) return;
+        st.updateTexImage();
+        if (eglSurface == EGL14.EGL_NO_SURFACE || clock.isPaused()) {
+            // Frames already in flight when the display was detached are consumed but not encoded
+            return;
+        }
+        // Skipped frames still count for snapshots, which show the latest frame
+        st.getTransformMatrix(texMatrix);
+        hasFrame = true;
+        long presentationNs = clock.toPresentationNs(st.getTimestamp());
+        if (minFrameIntervalNs > 0 && lastFrameNs >= 0 && presentationNs - lastFrameNs < minFrameIntervalNs) {
+            return;
+        }
+        lastFrameNs = presentationNs;
+        drawFrame(outputWidth, outputHeight);
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, presentationNs);
+        EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        if (stats != null) {
+            stats.onFrameRendered();
+        }
+    }
+
+    private void drawFrame(int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glUniformMatrix4fv(texMatrixLocation, 1, false, texMatrix, 0);
+        GLES20.glUniform4fv(cropLocation, 1, crop, 0);
+        GLES20.glEnableVertexAttribArray(positionLocation);
+        GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(texCoordLocation);
+        GLES20.glVertexAttribPointer(texCoordLocation, 2, GLES20.GL_FLOAT, false, 0, texCoordBuffer);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(positionLocation);
+        GLES20.glDisableVertexAttribArray(texCoordLocation);
+    }
+
+    void release() {
+        if (surfaceTexture != null) {
+            surfaceTexture.setOnFrameAvailableListener(null);
+            surfaceTexture.release();
+            surfaceTexture = null;
+        }
+        if (displaySurface != null) {
+            displaySurface.release();
+            displaySurface = null;
+        }
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            if (program != 0) GLES20.glDeleteProgram(program);
+            if (textureId != 0) GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (eglSurface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(eglDisplay, eglSurface);
+            if (snapshotSurface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(eglDisplay, snapshotSurface);
+            EGL14.eglDestroySurface(eglDisplay, pbufferSurface);
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(eglDisplay);
+        }
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        eglSurface = EGL14.EGL_NO_SURFACE;
+        snapshotSurface = EGL14.EGL_NO_SURFACE;
+        pbufferSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private void setUpEgl() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new IllegalStateException("Unable to initialize EGL14");
+        }
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new IllegalStateException("No recordable EGL config");
+        }
+        eglConfig = configs[0];
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        int[] pbufferAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig, pbufferAttributes, 0);
+        if (eglContext == EGL14.EGL_NO_CONTEXT || pbufferSurface == EGL14.EGL_NO_SURFACE) {
+            throw new IllegalStateException("Unable to create EGL context or surface");
+        }
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+    }
+
+    /** Shared with {@link AnnotationRenderer}, which draws with the same GL set-up. */
+    static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new IllegalStateException("Could not link program: " + log);
+        }
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("Could not compile shader " + type + ": " + log);
+        }
+        return shader;
+    }
+
+    static FloatBuffer createFloatBuffer(float[] values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+}
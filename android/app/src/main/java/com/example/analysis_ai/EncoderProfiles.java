@@ -0,0 +1,429 @@
+package com.example.analysis_ai;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Picks the video codec, frame rate and bitrate for a recording from what the device encoders
+ * can actually do. {@link MediaCodecList} is probed once and the result is cached in the app's
+ * files dir, keyed by the build fingerprint so an OTA update triggers a fresh probe. The exact
+ * size and rate checks need the live capabilities, which a cached probe lacks; those are looked
+ * up in a single pass over the codec list per process, see {@link #prefetch}.
+ */
+class EncoderProfiles {
+    private static final String TAG = "EncoderProfiles";
+    private static final String CACHE_FILE = "encoder_capabilities.json";
+
+    static final String PRESET_LOW_IO = "low-IO";
+    static final String PRESET_BALANCED = "balanced";
+    static final String PRESET_QUALITY = "quality";
+    /** Editing proxy of imported footage, see {@link ProxyGenerator}. */
+    static final String PRESET_PROXY = "proxy";
+    private static final int PROXY_MAX_EDGE = 640;
+
+    static final int MIN_BIT_RATE = 500 * 1000;
+    // HEVC reaches the same quality at roughly 60% of the AVC bitrate
+    private static final float HEVC_BIT_RATE_FACTOR = 0.6f;
+    // Each step scales a size the encoder rejects down by 10%; a dozen steps reach about a quarter
+    private static final float SIZE_STEP = 0.9f;
+    private static final int MAX_SIZE_STEPS = 12;
+
+    /** Encoder settings for one recording. */
+    static class RecordingProfile {
+        final String preset;
+        final String mimeType;
+        final String codecName;
+        final int width, height;
+        final int frameRate;
+        final int bitRate;
+
+        RecordingProfile(String preset, String mimeType, String codecName, int width, int height,
+                         int frameRate, int bitRate) {
+            this.preset = preset;
+            this.mimeType = mimeType;
+            this.codecName = codecName;
+            this.width = width;
+            this.height = height;
+            this.frameRate = frameRate;
+            this.bitRate = bitRate;
+        }
+
+        /** Same encoder and format, so a codec configured for one can record the other. */
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof RecordingProfile)) return false;
+            RecordingProfile that = (RecordingProfile) other;
+            return width == that.width && height == that.height && frameRate == that.frameRate
+                    && bitRate == that.bitRate && mimeType.equals(that.mimeType)
+                    && Objects.equals(codecName, that.codecName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mimeType, codecName, width, height, frameRate, bitRate);
+        }
+
+        @Override
+        public String toString() {
+            return preset + ": " + mimeType + " (" + codecName + ") " + width + "x" + height
+                    + " @ " + frameRate + " fps, " + bitRate + " bps";
+        }
+    }
+
+    /** What one hardware or software encoder reported for one mime type. */
+    private static class EncoderInfo {
+        final String name;
+        final String mimeType;
+        final boolean hardware;
+        final int minBitRate, maxBitRate;
+        final int maxWidth, maxHeight;
+        final int widthAlignment, heightAlignment;
+        final int maxFrameRate;
+        // Exact size and rate checks; not cached on disk, see resolveCapabilities()
+        MediaCodecInfo.VideoCapabilities capabilities;
+
+        EncoderInfo(String name, String mimeType, boolean hardware, int minBitRate, int maxBitRate,
+                    int maxWidth, int maxHeight, int widthAlignment, int heightAlignment, int maxFrameRate) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.hardware = hardware;
+            this.minBitRate = minBitRate;
+            this.maxBitRate = maxBitRate;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.widthAlignment = widthAlignment;
+            this.heightAlignment = heightAlignment;
+            this.maxFrameRate = maxFrameRate;
+        }
+
+        EncoderInfo withCapabilities(MediaCodecInfo.VideoCapabilities capabilities) {
+            this.capabilities = capabilities;
+            return this;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("name", name)
+                    .put("mimeType", mimeType)
+                    .put("hardware", hardware)
+                    .put("minBitRate", minBitRate)
+                    .put("maxBitRate", maxBitRate)
+                    .put("maxWidth", maxWidth)
+                    .put("maxHeight", maxHeight)
+                    .put("widthAlignment", widthAlignment)
+                    .put("heightAlignment", heightAlignment)
+                    .put("maxFrameRate", maxFrameRate);
+        }
+
+        static EncoderInfo fromJson(JSONObject json) throws JSONException {
+            return new EncoderInfo(
+                    json.getString("name"),
+                    json.getString("mimeType"),
+                    json.getBoolean("hardware"),
+                    json.getInt("minBitRate"),
+                    json.getInt("maxBitRate"),
+                    json.getInt("maxWidth"),
+                    json.getInt("maxHeight"),
+                    json.getInt("widthAlignment"),
+                    json.getInt("heightAlignment"),
+                    json.getInt("maxFrameRate"));
+        }
+    }
+
+    private static EncoderProfiles instance;
+    private final List<EncoderInfo> encoders;
+    private boolean capabilitiesResolved;
+
+    private EncoderProfiles(List<EncoderInfo> encoders, boolean probed) {
+        this.encoders = encoders;
+        // A fresh probe already holds the live capabilities
+        this.capabilitiesResolved = probed;
+    }
+
+    /** Returns the cached capabilities, probing the codec list only on the first call per build. */
+    static synchronized EncoderProfiles get(Context context) {
+        if (instance != null) return instance;
+        File cacheFile = new File(context.getFilesDir(), CACHE_FILE);
+        List<EncoderInfo> encoders = readCache(cacheFile);
+        boolean probed = encoders == null;
+        if (probed) {
+            long start = System.nanoTime();
+            encoders = probe();
+            Log.d(TAG, "Probed " + encoders.size() + " encoders in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            writeCache(cacheFile, encoders);
+        }
+        instance = new EncoderProfiles(encoders, probed);
+        return instance;
+    }
+
+    /** Loads the profiles and their live capabilities on a background thread, ahead of the first recording. */
+    static void prefetch(Context context) {
+        Context appContext = context.getApplicationContext();
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            get(appContext).resolveCapabilities();
+        }, "EncoderPrefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Attaches the live capabilities to cached encoders, walking the codec list once for all of
+     * them. Encoders gone since the probe keep none and fall back to the probed limits.
+     */
+    private synchronized void resolveCapabilities() {
+        if (capabilitiesResolved) return;
+        capabilitiesResolved = true;
+        long start = System.nanoTime();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+            for (EncoderInfo encoder : encoders) {
+                if (encoder.capabilities != null || !encoder.name.equals(info.getName())
+                        || !supportsType(info, encoder.mimeType)) continue;
+                try {
+                    encoder.capabilities = info.getCapabilitiesForType(encoder.mimeType).getVideoCapabilities();
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "No capabilities for " + encoder.name + ": " + e.getMessage());
+                }
+            }
+        }
+        Log.d(TAG, "Resolved encoder capabilities in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Chooses settings for a crop of {@code width}x{@code height}: HEVC when a hardware encoder
+     * handles the size and rate, otherwise H.264, with the bitrate derived from the pixel rate.
+     */
+    RecordingProfile select(String preset, int width, int height) {
+        if (preset == null) preset = PRESET_BALANCED;
+        if (PRESET_PROXY.equals(preset)) {
+            // Small and H.264, which every device decodes cheaply, so scrubbing stays smooth
+            float scale = Math.min(1f, (float) PROXY_MAX_EDGE / Math.max(width, height));
+            return fallbackToAvc(preset, Math.round(width * scale), Math.round(height * scale));
+        }
+        RecordingProfile profile = select(preset, MediaFormat.MIMETYPE_VIDEO_HEVC, width, height, true);
+        if (profile == null) {
+            profile = fallbackToAvc(preset, width, height);
+        }
+        Log.d(TAG, "Selected profile " + profile);
+        return profile;
+    }
+
+    /** H.264 profile for the same request, used when HEVC is missing or fails to configure. */
+    RecordingProfile fallbackToAvc(String preset, int width, int height) {
+        RecordingProfile profile = select(preset, MediaFormat.MIMETYPE_VIDEO_AVC, width, height, false);
+        if (profile == null) {
+            // Nothing probed (e.g. empty cache): the settings recording always used
+            profile = new RecordingProfile(preset, MediaFormat.MIMETYPE_VIDEO_AVC, null,
+                    width & ~1, height & ~1, 30, 5 * 1000 * 1000);
+        }
+        return profile;
+    }
+
+    private RecordingProfile select(String preset, String mimeType, int width, int height, boolean hardwareOnly) {
+        resolveCapabilities();
+        for (EncoderInfo encoder : encoders) {
+            if (!encoder.mimeType.equals(mimeType) || (hardwareOnly && !encoder.hardware)) continue;
+
+            // Scale down proportionally if the crop exceeds what the encoder accepts
+            float scale = Math.min(1f, Math.min((float) encoder.maxWidth / width, (float) encoder.maxHeight / height));
+            MediaCodecInfo.VideoCapabilities capabilities = encoder.capabilities;
+            int encodedWidth = 0, encodedHeight = 0, frameRate = 0;
+            // The per-axis limits pass sizes the encoder still rejects as a whole, like a tall
+            // 1440x3200 full-screen crop, so step down until the exact size and rate are supported
+            for (int step = 0; step < MAX_SIZE_STEPS && frameRate == 0; step++, scale *= SIZE_STEP) {
+                encodedWidth = align((int) (width * scale), encoder.widthAlignment);
+                encodedHeight = align((int) (height * scale), encoder.heightAlignment);
+                if (encodedWidth <= 0 || encodedHeight <= 0) break;
+                frameRate = supportedFrameRate(encoder, capabilities, encodedWidth, encodedHeight,
+                        targetFrameRate(preset));
+            }
+            if (frameRate == 0) continue;
+
+            float bitsPerPixel = bitsPerPixel(preset);
+            if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mimeType)) {
+                bitsPerPixel *= HEVC_BIT_RATE_FACTOR;
+            }
+            long bitRate = (long) (encodedWidth * (long) encodedHeight * frameRate * bitsPerPixel);
+            bitRate = Math.max(bitRate, Math.max(MIN_BIT_RATE, encoder.minBitRate));
+            bitRate = Math.min(bitRate, encoder.maxBitRate);
+            return new RecordingProfile(preset, mimeType, encoder.name, encodedWidth, encodedHeight,
+                    frameRate, (int) bitRate);
+        }
+        return null;
+    }
+
+    /**
+     * The target rate, or the highest the encoder manages at this size; 0 if the size is not
+     * supported. Without capabilities, the rate probed at 1080p has to do.
+     */
+    private static int supportedFrameRate(EncoderInfo encoder, MediaCodecInfo.VideoCapabilities capabilities,
+                                          int width, int height, int targetFrameRate) {
+        if (capabilities == null) return Math.min(targetFrameRate, encoder.maxFrameRate);
+        if (!capabilities.isSizeSupported(width, height)) return 0;
+        int frameRate = Math.min(targetFrameRate,
+                (int) Math.floor(capabilities.getSupportedFrameRatesFor(width, height).getUpper()));
+        return frameRate > 0 && capabilities.areSizeAndRateSupported(width, height, frameRate) ? frameRate : 0;
+    }
+
+    /** The preset one step cheaper in bitrate, or null for the cheapest. */
+    static String lowerPreset(String preset) {
+        if (preset == null) preset = PRESET_BALANCED;
+        switch (preset) {
+            case PRESET_QUALITY:
+                return PRESET_BALANCED;
+            case PRESET_BALANCED:
+                return PRESET_LOW_IO;
+            default:
+                return null;
+        }
+    }
+
+    private static int targetFrameRate(String preset) {
+        switch (preset) {
+            case PRESET_LOW_IO:
+                return 24;
+            case PRESET_QUALITY:
+                return 60;
+            default:
+                return 30;
+        }
+    }
+
+    private static float bitsPerPixel(String preset) {
+        switch (preset) {
+            case PRESET_LOW_IO:
+                return 0.05f;
+            case PRESET_QUALITY:
+                return 0.15f;
+            case PRESET_PROXY:
+                // Few pixels per frame need more bits each to stay legible
+                return 0.1f;
+            default:
+                return 0.08f;
+        }
+    }
+
+    private static int align(int value, int alignment) {
+        return alignment > 1 ? value / alignment * alignment : value & ~1;
+    }
+
+    private static List<EncoderInfo> probe() {
+        List<EncoderInfo> encoders = new ArrayList<>();
+        String[] mimeTypes = {MediaFormat.MIMETYPE_VIDEO_HEVC, MediaFormat.MIMETYPE_VIDEO_AVC};
+        MediaCodecInfo[] codecInfos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        for (String mimeType : mimeTypes) {
+            for (MediaCodecInfo info : codecInfos) {
+                if (!info.isEncoder() || !supportsType(info, mimeType)) continue;
+                try {
+                    MediaCodecInfo.VideoCapabilities video =
+                            info.getCapabilitiesForType(mimeType).getVideoCapabilities();
+                    if (video == null) continue;
+                    Range<Integer> bitRates = video.getBitrateRange();
+                    int maxWidth = video.getSupportedWidths().getUpper();
+                    int maxHeight = video.getSupportedHeights().getUpper();
+                    int maxFrameRate = 30;
+                    // Judge the frame rate at 1080p, the largest crop we record in practice
+                    int probeWidth = Math.min(1920, maxWidth);
+                    int probeHeight = Math.min(1080, maxHeight);
+                    if (video.isSizeSupported(probeWidth, probeHeight)) {
+                        maxFrameRate = video.getSupportedFrameRatesFor(probeWidth, probeHeight).getUpper().intValue();
+                    }
+                    encoders.add(new EncoderInfo(info.getName(), mimeType, isHardware(info),
+                            bitRates.getLower(), bitRates.getUpper(), maxWidth, maxHeight,
+                            video.getWidthAlignment(), video.getHeightAlignment(), maxFrameRate)
+                            .withCapabilities(video));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Skipping " + info.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        // Hardware encoders first so select() prefers them
+        List<EncoderInfo> sorted = new ArrayList<>();
+        for (EncoderInfo encoder : encoders) if (encoder.hardware) sorted.add(encoder);
+        for (EncoderInfo encoder : encoders) if (!encoder.hardware) sorted.add(encoder);
+        return sorted;
+    }
+
+    private static boolean supportsType(MediaCodecInfo info, String mimeType) {
+        for (String type : info.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isHardware(MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return info.isHardwareAccelerated();
+        }
+        String name = info.getName().toLowerCase(Locale.ROOT);
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.");
+    }
+
+    private static List<EncoderInfo> readCache(File cacheFile) {
+        if (!cacheFile.exists()) return null;
+        try (FileInputStream in = new FileInputStream(cacheFile)) {
+            byte[] bytes = new byte[(int) cacheFile.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            JSONObject json = new JSONObject(new String(bytes, 0, offset, StandardCharsets.UTF_8));
+            if (!Build.FINGERPRINT.equals(json.optString("fingerprint"))) {
+                return null;
+            }
+            JSONArray array = json.getJSONArray("encoders");
+            List<EncoderInfo> encoders = new ArrayList<>();
+            for (int i = 0; i < array.length(); i++) {
+                encoders.add(EncoderInfo.fromJson(array.getJSONObject(i)));
+            }
+            return encoders;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Ignoring unreadable encoder cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeCache(File cacheFile, List<EncoderInfo> encoders) {
+        try {
+            JSONArray array = new JSONArray();
+            for (EncoderInfo encoder : encoders) {
+                array.put(encoder.toJson());
+            }
+            JSONObject json = new JSONObject()
+                    .put("fingerprint", Build.FINGERPRINT)
+                    .put("encoders", array);
+            File tmp = new File(cacheFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(cacheFile)) {
+                tmp.delete();
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Unable to cache encoder capabilities: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.analysis_ai;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which clips were already exported, keyed by a content fingerprint: the file size
+ * plus a SHA-256 over the whole file. Sampling only parts of the file is not enough, two
+ * recordings of a static scene can share their ends, and a clip taken for a duplicate is never
+ * exported. Hashing reads the clip once, which is still cheaper than copying it again.
+ *
+ * <p>Stored as one {@code fingerprint<TAB>uri} line per export. Plain Java, like
+ * {@link FileTransfer}; not thread-safe, the batch exporter uses it from one thread.
+ */
+class ExportIndex {
+    private static final int HASH_BUFFER_BYTES = 1024 * 1024;
+    private static final int MAX_ENTRIES = 2000;
+
+    private final File file;
+    private final Map<String, String> entries = new LinkedHashMap<>();
+    private boolean loaded;
+    private boolean dirty;
+
+    ExportIndex(File file) {
+        this.file = file;
+    }
+
+    static String fingerprint(File source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = new FileInputStream(source).getChannel()) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(HASH_BUFFER_BYTES, size)));
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            StringBuilder fingerprint = new StringBuilder().append(size).append(':');
+            for (byte b : digest.digest()) {
+                fingerprint.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return fingerprint.toString();
+        }
+    }
+
+    /** Returns the uri the clip was exported to, or null. */
+    String get(String fingerprint) {
+        load();
+        return entries.get(fingerprint);
+    }
+
+    void put(String fingerprint, String uri) {
+        load();
+        entries.remove(fingerprint);
+        entries.put(fingerprint, uri);
+        // Oldest first, so the index stays bounded without losing recent exports
+        while (entries.size() > MAX_ENTRIES) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+        dirty = true;
+    }
+
+    void remove(String fingerprint) {
+        load();
+        if (entries.remove(fingerprint) != null) {
+            dirty = true;
+        }
+    }
+
+    void save() throws IOException {
+        if (!dirty) return;
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer out = new FileWriter(temp)) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.write(entry.getKey());
+                out.write('\t');
+                out.write(entry.getValue());
+                out.write('\n');
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+        dirty = false;
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    entries.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            // A lost index only means clips may be exported again
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.analysis_ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Channel-to-channel file copy. {@link FileChannel#transferTo} lets the kernel move the data
+ * (sendfile/copy_file_range where available) instead of bouncing it through a Java byte array,
+ * and large chunks keep the syscall count per clip in the hundreds rather than the hundreds of
+ * thousands. Plain Java so it can be exercised off-device.
+ */
+final class FileTransfer {
+    static final long CHUNK_BYTES = 8L * 1024 * 1024;
+    private static final int FALLBACK_BUFFER_BYTES = 1024 * 1024;
+
+    interface Listener {
+        /** Called after every chunk; throw to abort the transfer (e.g. on cancellation). */
+        void onProgress(long transferred, long total) throws IOException;
+    }
+
+    private FileTransfer() {
+    }
+
+    /** Copies the whole of {@code source} to the current position of {@code target}. */
+    static long transfer(FileChannel source, FileChannel target, Listener listener) throws IOException {
+        return transfer(source, 0, source.size(), target, listener);
+    }
+
+    /** Copies {@code count} bytes from {@code start} of {@code source} to the position of {@code target}. */
+    static long transfer(FileChannel source, long start, long count, FileChannel target, Listener listener)
+            throws IOException {
+        long end = start + count;
+        long position = start;
+        ByteBuffer fallback = null;
+        while (position < end) {
+            long chunk = Math.min(CHUNK_BYTES, end - position);
+            long transferred = source.transferTo(position, chunk, target);
+            if (transferred <= 0) {
+                // Some targets (e.g. pipes behind a content provider) refuse transferTo
+                if (fallback == null) {
+                    fallback = ByteBuffer.allocateDirect(FALLBACK_BUFFER_BYTES);
+                }
+                transferred = copyChunk(source, target, position, chunk, fallback);
+            }
+            position += transferred;
+            if (listener != null) {
+                listener.onProgress(position - start, count);
+            }
+        }
+        return count;
+    }
+
+    private static long copyChunk(FileChannel source, FileChannel target, long position, long count,
+                                  ByteBuffer buffer) throws IOException {
+        long copied = 0;
+        while (copied < count) {
+            buffer.clear();
+            if (count - copied < buffer.capacity()) {
+                buffer.limit((int) (count - copied));
+            }
+            int read = source.read(buffer, position + copied);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + (position + copied));
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            copied += read;
+        }
+        return copied;
+    }
+}
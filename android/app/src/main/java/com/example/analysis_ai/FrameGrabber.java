@@ -0,0 +1,247 @@
+package com.example.analysis_ai;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Frame extraction engine behind the frame_grabber channel. One {@link MediaMetadataRetriever}
+ * stays open per recently used video, so a pause snapshot does not reopen and re-probe the file,
+ * and a batch of timestamps is decoded in ascending order on that retriever. Frames are encoded
+ * as JPEG or WebP instead of full-quality PNG and kept in a byte-bounded LRU keyed by video,
+ * timestamp, size and encoding.
+ *
+ * <p>Retrievers are not thread-safe, so all decoding runs on one background thread.
+ */
+class FrameGrabber {
+    private static final String TAG = "FrameGrabber";
+    private static final int MAX_OPEN_RETRIEVERS = 2;
+    private static final int MAX_CACHE_BYTES = 24 * 1024 * 1024;
+    static final String FORMAT_JPEG = "jpeg";
+    static final String FORMAT_WEBP = "webp";
+
+    interface Callback {
+        /** Entry i belongs to the i-th requested timestamp and is null if it could not be decoded. */
+        void onFrames(List<byte[]> frames);
+
+        void onError(Exception e);
+    }
+
+    interface KeyframeCallback {
+        void onKeyframes(long[] timesMs);
+
+        void onError(Exception e);
+    }
+
+    /** Output size and encoding; a zero size keeps the video's own dimensions. */
+    static class FrameSpec {
+        final int maxWidth, maxHeight;
+        final String format;
+        final int quality;
+
+        FrameSpec(int maxWidth, int maxHeight, String format, int quality) {
+            this.maxWidth = Math.max(0, maxWidth);
+            this.maxHeight = Math.max(0, maxHeight);
+            this.format = FORMAT_WEBP.equals(format) ? FORMAT_WEBP : FORMAT_JPEG;
+            this.quality = Math.max(1, Math.min(100, quality));
+        }
+
+        String key(String videoPath, long timestampMs) {
+            return videoPath + "@" + timestampMs + ":" + maxWidth + "x" + maxHeight + ":" + format + quality;
+        }
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FrameGrabber");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Access order, so the least recently used retriever is closed first
+    private final LinkedHashMap<String, MediaMetadataRetriever> retrievers = new LinkedHashMap<>(4, 0.75f, true);
+    private final LruCache<String, byte[]> cache = new LruCache<String, byte[]>(MAX_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    /** Decodes the frames at {@code timestampsMs} and calls back on the main thread. */
+    void grabFrames(String videoPath, List<Long> timestampsMs, FrameSpec spec, Callback callback) {
+        executor.execute(() -> {
+            try {
+                List<byte[]> frames = grab(videoPath, timestampsMs, spec);
+                mainHandler.post(() -> callback.onFrames(frames));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error grabbing frames from " + videoPath + ": " + e.getMessage());
+                mainHandler.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    /** Same as {@link #grabFrames} for one timestamp, written to {@code outputPath}. */
+    void saveFrame(String videoPath, long timestampMs, FrameSpec spec, String outputPath, Callback callback) {
+        executor.execute(() -> {
+            try {
+                List<byte[]> frames = grab(videoPath, Arrays.asList(timestampMs), spec);
+                byte[] frame = frames.get(0);
+                if (frame != null) {
+                    try (FileOutputStream out = new FileOutputStream(outputPath)) {
+                        out.write(frame);
+                    }
+                }
+                mainHandler.post(() -> callback.onFrames(frames));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error saving frame from " + videoPath + ": " + e.getMessage());
+                mainHandler.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    /**
+     * Loads the video's keyframe times from its sidecar, parsing the MP4 on the first call. Frames
+     * at these times decode without stepping from an earlier sync frame, which makes them cheap
+     * scrub strip thumbnails.
+     */
+    void loadKeyframes(String videoPath, KeyframeCallback callback) {
+        executor.execute(() -> {
+            try {
+                long startNs = System.nanoTime();
+                Mp4KeyframeIndex index = Mp4KeyframeIndex.load(new File(videoPath));
+                Log.d(TAG, "Loaded " + index.size() + " keyframes in " + (System.nanoTime() - startNs) / 1_000_000 + " ms");
+                mainHandler.post(() -> callback.onKeyframes(index.getTimesMs()));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error indexing keyframes of " + videoPath + ": " + e.getMessage());
+                mainHandler.post(() -> callback.onError(e));
+            }
+        });
+    }
+
+    /** Closes the retriever of a video that is no longer being edited; cached frames stay. */
+    void releaseVideo(String videoPath) {
+        executor.execute(() -> {
+            MediaMetadataRetriever retriever = retrievers.remove(videoPath);
+            if (retriever != null) {
+                closeRetriever(retriever);
+            }
+        });
+    }
+
+    void shutdown() {
+        executor.execute(() -> {
+            for (MediaMetadataRetriever retriever : retrievers.values()) {
+                closeRetriever(retriever);
+            }
+            retrievers.clear();
+            cache.evictAll();
+        });
+        executor.shutdown();
+    }
+
+    private List<byte[]> grab(String videoPath, List<Long> timestampsMs, FrameSpec spec) throws IOException {
+        if (!new File(videoPath).exists()) {
+            throw new IOException("Video not found: " + videoPath);
+        }
+        byte[][] frames = new byte[timestampsMs.size()][];
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = cache.get(spec.key(videoPath, timestampsMs.get(i)));
+            if (frames[i] == null) misses.add(i);
+        }
+        if (!misses.isEmpty()) {
+            // Decoding forward keeps the retriever's decoder close to the previous sync frame
+            misses.sort((a, b) -> Long.compare(timestampsMs.get(a), timestampsMs.get(b)));
+            MediaMetadataRetriever retriever = retrieverFor(videoPath);
+            long startNs = System.nanoTime();
+            for (int index : misses) {
+                long timestampMs = timestampsMs.get(index);
+                frames[index] = decode(retriever, timestampMs, spec);
+                if (frames[index] != null) {
+                    cache.put(spec.key(videoPath, timestampMs), frames[index]);
+                }
+            }
+            Log.d(TAG, "Decoded " + misses.size() + "/" + frames.length + " frames in "
+                    + (System.nanoTime() - startNs) / 1_000_000 + " ms");
+        }
+        return Arrays.asList(frames);
+    }
+
+    private MediaMetadataRetriever retrieverFor(String videoPath) {
+        MediaMetadataRetriever retriever = retrievers.get(videoPath);
+        if (retriever != null) return retriever;
+        retriever = new MediaMetadataRetriever();
+        retriever.setDataSource(videoPath);
+        retrievers.put(videoPath, retriever);
+        Iterator<Map.Entry<String, MediaMetadataRetriever>> eldest = retrievers.entrySet().iterator();
+        while (retrievers.size() > MAX_OPEN_RETRIEVERS) {
+            closeRetriever(eldest.next().getValue());
+            eldest.remove();
+        }
+        return retriever;
+    }
+
+    private byte[] decode(MediaMetadataRetriever retriever, long timestampMs, FrameSpec spec) {
+        long timeUs = timestampMs * 1000;
+        Bitmap frame;
+        if (spec.maxWidth > 0 && spec.maxHeight > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            // Scaled in the decoder, so the full-size frame is never allocated
+            frame = retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST,
+                    spec.maxWidth, spec.maxHeight);
+        } else {
+            frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST);
+            if (frame != null && spec.maxWidth > 0 && spec.maxHeight > 0) {
+                frame = scaleDown(frame, spec.maxWidth, spec.maxHeight);
+            }
+        }
+        if (frame == null) {
+            Log.w(TAG, "No frame at " + timestampMs + " ms");
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(frame.getWidth() * frame.getHeight() / 4);
+        frame.compress(compressFormat(spec.format), spec.quality, out);
+        frame.recycle();
+        return out.toByteArray();
+    }
+
+    private static Bitmap scaleDown(Bitmap frame, int maxWidth, int maxHeight) {
+        float scale = Math.min((float) maxWidth / frame.getWidth(), (float) maxHeight / frame.getHeight());
+        if (scale >= 1f) return frame;
+        Bitmap scaled = Bitmap.createScaledBitmap(frame,
+                Math.round(frame.getWidth() * scale), Math.round(frame.getHeight() * scale), true);
+        frame.recycle();
+        return scaled;
+    }
+
+    @SuppressWarnings("deprecation")
+    static Bitmap.CompressFormat compressFormat(String format) {
+        if (!FORMAT_WEBP.equals(format)) return Bitmap.CompressFormat.JPEG;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static void closeRetriever(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error releasing retriever: " + e.getMessage());
+        }
+    }
+}
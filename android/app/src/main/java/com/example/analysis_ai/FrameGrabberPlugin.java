@@ -0,0 +1,106 @@
+package com.example.analysis_ai;
+
+import androidx.annotation.NonNull;
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameGrabberPlugin implements FlutterPlugin, MethodChannel.MethodCallHandler {
+    private static final String CHANNEL = "com.example.analysis_ai/frame_grabber";
+    private final FrameGrabber grabber = new FrameGrabber();
+
+    @Override
+    public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
+        MethodChannel channel = new MethodChannel(binding.getBinaryMessenger(), CHANNEL);
+        channel.setMethodCallHandler(this);
+    }
+
+    @Override
+    public void onMethodCall(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        if (call.method.equals("grabFrames")) {
+            String path = call.argument("path");
+            List<Number> timestamps = call.argument("timestampsMs");
+            if (path == null || timestamps == null) {
+                result.error("INVALID_ARGUMENTS", "path and timestampsMs are required", null);
+                return;
+            }
+            List<Long> timestampsMs = new ArrayList<>(timestamps.size());
+            for (Number timestamp : timestamps) {
+                timestampsMs.add(timestamp.longValue());
+            }
+            grabber.grabFrames(path, timestampsMs, frameSpec(call), new FrameGrabber.Callback() {
+                @Override
+                public void onFrames(List<byte[]> frames) {
+                    result.success(frames);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    result.error("GRAB_FRAMES_ERROR", "Failed to grab frames: " + e.getMessage(), null);
+                }
+            });
+        } else if (call.method.equals("saveFrame")) {
+            String path = call.argument("path");
+            Number timestamp = call.argument("timestampMs");
+            String outputPath = call.argument("outputPath");
+            if (path == null || timestamp == null || outputPath == null) {
+                result.error("INVALID_ARGUMENTS", "path, timestampMs and outputPath are required", null);
+                return;
+            }
+            grabber.saveFrame(path, timestamp.longValue(), frameSpec(call), outputPath, new FrameGrabber.Callback() {
+                @Override
+                public void onFrames(List<byte[]> frames) {
+                    result.success(frames.get(0) != null ? outputPath : null);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    result.error("SAVE_FRAME_ERROR", "Failed to save frame: " + e.getMessage(), null);
+                }
+            });
+        } else if (call.method.equals("getKeyframes")) {
+            // Keyframe times in ms, ascending; cached in a sidecar next to the video
+            String path = call.argument("path");
+            if (path == null) {
+                result.error("INVALID_ARGUMENTS", "path is required", null);
+                return;
+            }
+            grabber.loadKeyframes(path, new FrameGrabber.KeyframeCallback() {
+                @Override
+                public void onKeyframes(long[] timesMs) {
+                    result.success(timesMs);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    result.error("KEYFRAMES_ERROR", "Failed to index keyframes: " + e.getMessage(), null);
+                }
+            });
+        } else if (call.method.equals("releaseVideo")) {
+            String path = call.argument("path");
+            if (path != null) grabber.releaseVideo(path);
+            result.success(null);
+        } else {
+            result.notImplemented();
+        }
+    }
+
+    // maxWidth/maxHeight of 0 keep the video size; format is "jpeg" (default) or "webp"
+    private static FrameGrabber.FrameSpec frameSpec(MethodCall call) {
+        Integer maxWidth = call.argument("maxWidth");
+        Integer maxHeight = call.argument("maxHeight");
+        Integer quality = call.argument("quality");
+        return new FrameGrabber.FrameSpec(
+                maxWidth != null ? maxWidth : 0,
+                maxHeight != null ? maxHeight : 0,
+                call.argument("format"),
+                quality != null ? quality : 90);
+    }
+
+    @Override
+    public void onDetachedFromEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
+        grabber.shutdown();
+    }
+}
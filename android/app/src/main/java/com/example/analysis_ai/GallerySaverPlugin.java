@@ -1,26 +1,25 @@
 package com.example.analysis_ai;
 
-import android.content.ContentValues;
-import android.content.Context;
 import android.net.Uri;
-import android.os.Build;
-import android.os.Environment;
-import android.provider.MediaStore;
 import androidx.annotation.NonNull;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 public class GallerySaverPlugin implements FlutterPlugin, MethodChannel.MethodCallHandler {
     private static final String CHANNEL = "com.example.analysis_ai/gallery_saver";
-    private Context context;
+    private final VideoExporter exporter;
+
+    public GallerySaverPlugin(VideoExporter exporter) {
+        this.exporter = exporter;
+    }
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
-        context = binding.getApplicationContext();
         MethodChannel channel = new MethodChannel(binding.getBinaryMessenger(), CHANNEL);
         channel.setMethodCallHandler(this);
     }
@@ -31,72 +30,61 @@ public class GallerySaverPlugin implements FlutterPlugin, MethodChannel.MethodCa
             String path = call.argument("path");
             String albumName = call.argument("albumName");
             boolean toDcim = call.argument("toDcim");
+            String exportId = exporter.newExportId(call.argument("exportId"));
 
-            try {
-                Uri uri = saveVideoToGallery(path, albumName, toDcim);
-                result.success(uri != null);
-            } catch (Exception e) {
-                result.error("SAVE_VIDEO_ERROR", "Failed to save video: " + e.getMessage(), null);
+            if (path == null || !new File(path).exists()) {
+                result.success(false);
+                return;
             }
-        } else {
-            result.notImplemented();
-        }
-    }
 
-    private Uri saveVideoToGallery(String filePath, String albumName, boolean toDcim) throws Exception {
-        File file = new File(filePath);
-        if (!file.exists()) {
-            return null;
-        }
+            exporter.exportToGallery(exportId, path, albumName, toDcim, new VideoExporter.Callback() {
+                @Override
+                public void onSuccess(Uri uri, String savedPath) {
+                    result.success(uri != null);
+                }
 
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.Video.Media.DISPLAY_NAME, file.getName());
-        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
-        values.put(MediaStore.Video.Media.DATE_ADDED, System.currentTimeMillis() / 1000);
-        values.put(MediaStore.Video.Media.DATE_TAKEN, System.currentTimeMillis());
+                @Override
+                public void onCancelled() {
+                    result.success(false);
+                }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            String relativePath = toDcim ? Environment.DIRECTORY_DCIM : Environment.DIRECTORY_MOVIES + "/" + albumName;
-            values.put(MediaStore.Video.Media.RELATIVE_PATH, relativePath);
-            values.put(MediaStore.Video.Media.IS_PENDING, 1);
-        } else {
-            String directory = toDcim ? Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM).getPath()
-                    : Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES).getPath() + "/" + albumName;
-            File dir = new File(directory);
-            if (!dir.exists()) dir.mkdirs();
-            File destFile = new File(dir, file.getName());
-            file.renameTo(destFile);
-            values.put(MediaStore.Video.Media.DATA, destFile.getAbsolutePath());
-        }
+                @Override
+                public void onError(Exception e) {
+                    result.error("SAVE_VIDEO_ERROR", "Failed to save video: " + e.getMessage(), null);
+                }
+            });
+        } else if (call.method.equals("saveVideos")) {
+            // Batch export; cancelExport with the batchId stops the whole batch
+            List<String> paths = call.argument("paths");
+            String albumName = call.argument("albumName");
+            Boolean toDcim = call.argument("toDcim");
+            String batchId = exporter.newExportId(call.argument("batchId"));
+            if (paths == null || paths.isEmpty()) {
+                result.success(Collections.emptyList());
+                return;
+            }
 
-        Uri uri = context.getContentResolver().insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
-        if (uri != null) {
-            try {
-                OutputStream out = context.getContentResolver().openOutputStream(uri);
-                FileInputStream in = new FileInputStream(file);
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, len);
+            exporter.exportBatch(batchId, paths, albumName, toDcim != null && toDcim, new VideoExporter.BatchCallback() {
+                @Override
+                public void onFinished(List<Map<String, Object>> results) {
+                    result.success(results);
                 }
-                out.close();
-                in.close();
 
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                    values.clear();
-                    values.put(MediaStore.Video.Media.IS_PENDING, 0);
-                    context.getContentResolver().update(uri, values, null, null);
+                @Override
+                public void onError(Exception e) {
+                    result.error("SAVE_VIDEO_ERROR", "Failed to save videos: " + e.getMessage(), null);
                 }
-            } catch (Exception e) {
-                context.getContentResolver().delete(uri, null, null);
-                return null;
-            }
+            });
+        } else if (call.method.equals("cancelExport")) {
+            String exportId = call.argument("exportId");
+            result.success(exportId != null && exporter.cancel(exportId));
+        } else {
+            result.notImplemented();
         }
-        return uri;
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
         // Cleanup if needed
     }
-}
\ No newline at end of file
+}
@@ -2,38 +2,72 @@ package com.example.analysis_ai;
 
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 
-import android.content.ContentValues;
-import android.content.Context;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.os.IBinder;
 import android.util.Log;
 import android.net.Uri;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class MainActivity extends FlutterActivity {
     private static final String TAG = "MainActivity";
     private static final String RECORDING_CHANNEL = "com.example.analysis_ai/recording";
     private static final String PLATFORM_CHANNEL = "com.example.analysis_ai/platform";
     private static final String MEDIASTORE_CHANNEL = "com.example.analysis_ai/mediastore";
+    private static final String EXPORT_PROGRESS_CHANNEL = "com.example.analysis_ai/export_progress";
+    private static final String STROKES_CHANNEL = "com.example.analysis_ai/strokes";
+    private static final String TELEMETRY_CHANNEL = "com.example.analysis_ai/telemetry";
+    private static final String REMUX_PROGRESS_CHANNEL = "com.example.analysis_ai/remux_progress";
+    private static final String RECORDING_STATUS_CHANNEL = "com.example.analysis_ai/recording_status";
     private static final int SCREEN_RECORD_REQUEST_CODE = 123;
     private MediaProjectionManager projectionManager;
-    private int left, top, width, height;
+    private ClipRequest pendingClip;
     private String lastOutputPath;
-    private MethodChannel.Result pendingResult;
-    private static MainActivity instance; // Static reference to current instance
+    private VideoExporter videoExporter;
+    private AnnotationRenderer annotationRenderer;
+    private VideoRemuxer videoRemuxer;
+    private ProxyGenerator proxyGenerator;
+    // Editor drawings streamed over STROKES_CHANNEL, used by renderAnnotatedVideo on request
+    private final StrokeBatch streamedStrokes = new StrokeBatch();
+    // Handle to the recording session; without an explicit openRecordingSession the session only
+    // lives for one clip, as before
+    private ScreenRecordService.SessionBinder session;
+    private boolean sessionBound;
+    private boolean keepSessionOpen;
+    // {status, message} events for clips that fail to start or are stopped by the service
+    private EventChannel.EventSink recordingStatusSink;
+
+    private final ServiceConnection sessionConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            session = (ScreenRecordService.SessionBinder) service;
+            session.setStatusListener(MainActivity.this::sendRecordingStatus);
+            Log.d(TAG, "Recording session connected");
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            session = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         projectionManager = (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
-        instance = this; // Set static instance
     }
 
     @Override
@@ -43,18 +77,59 @@ public class MainActivity extends FlutterActivity {
         new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), RECORDING_CHANNEL)
                 .setMethodCallHandler((call, result) -> {
                     if (call.method.equals("startScreenRecording")) {
-                        left = call.argument("left");
-                        top = call.argument("top");
-                        width = call.argument("width");
-                        height = call.argument("height");
-                        startScreenRecording();
+                        int left = call.argument("left");
+                        int top = call.argument("top");
+                        int width = call.argument("width");
+                        int height = call.argument("height");
+                        // Optional segmented mode; stopScreenRecording then returns {path, segments}
+                        Number segmentDuration = call.argument("segmentDurationMs");
+                        Number segmentBytes = call.argument("segmentMaxBytes");
+                        Integer segmentCount = call.argument("maxSegments");
+                        MuxerWriter.SegmentPolicy segmentPolicy = new MuxerWriter.SegmentPolicy(
+                                segmentDuration != null ? segmentDuration.longValue() * 1000 : 0,
+                                segmentBytes != null ? segmentBytes.longValue() : 0,
+                                segmentCount != null ? segmentCount : 0);
+                        // "low-IO", "balanced" (default) or "quality", see EncoderProfiles
+                        String preset = call.argument("preset");
+                        // Sizes the free-space check; a lower preset is used if it does not fit
+                        Number expectedDuration = call.argument("expectedDurationMs");
+                        startScreenRecording(new ClipRequest(left, top, width, height, preset, segmentPolicy,
+                                expectedDuration != null ? expectedDuration.longValue() : 0));
+                        result.success(true);
+                    } else if (call.method.equals("openRecordingSession")) {
+                        // Keeps the projection and encoders warm until closeRecordingSession
+                        keepSessionOpen = true;
+                        if (session == null || !session.isOpen()) {
+                            requestProjection(null);
+                        }
                         result.success(true);
+                    } else if (call.method.equals("closeRecordingSession")) {
+                        keepSessionOpen = false;
+                        closeSession();
+                        result.success(true);
+                    } else if (call.method.equals("pauseScreenRecording")) {
+                        if (session != null) session.pauseClip();
+                        result.success(session != null);
+                    } else if (call.method.equals("resumeScreenRecording")) {
+                        if (session != null) session.resumeClip();
+                        result.success(session != null);
                     } else if (call.method.equals("stopScreenRecording")) {
-                        Log.d(TAG, "Stopping screen recording service");
-                        Intent stopIntent = new Intent(this, ScreenRecordService.class);
-                        stopIntent.putExtra("returnPath", true);
-                        stopService(stopIntent);
-                        pendingResult = result; // Store result for path return
+                        Log.d(TAG, "Stopping screen recording");
+                        stopScreenRecording(call, result);
+                    } else if (call.method.equals("captureSnapshot")) {
+                        captureSnapshot(call, result);
+                    } else if (call.method.equals("renderAnnotatedVideo")) {
+                        renderAnnotatedVideo(call, result);
+                    } else if (call.method.equals("remuxVideo")) {
+                        remuxVideo(call, result);
+                    } else if (call.method.equals("cancelRemux")) {
+                        String remuxId = call.argument("remuxId");
+                        result.success(remuxId != null && videoRemuxer.cancel(remuxId));
+                    } else if (call.method.equals("createProxy")) {
+                        createProxy(call, result);
+                    } else if (call.method.equals("cancelProxy")) {
+                        String path = call.argument("path");
+                        result.success(path != null && proxyGenerator.cancel(path));
                     } else {
                         result.notImplemented();
                     }
@@ -64,71 +139,306 @@ public class MainActivity extends FlutterActivity {
                 .setMethodCallHandler((call, result) -> {
                     if (call.method.equals("getSdkVersion")) {
                         result.success(Build.VERSION.SDK_INT);
+                    } else if (call.method.equals("getTelemetryLogPath")) {
+                        // One JSON record per line, see Telemetry
+                        result.success(Telemetry.get(this).getLogFile().getAbsolutePath());
                     } else {
                         result.notImplemented();
                     }
                 });
 
+        new BasicMessageChannel<>(flutterEngine.getDartExecutor().getBinaryMessenger(), STROKES_CHANNEL,
+                new StrokeBatchCodec())
+                .setMessageHandler((batch, reply) -> {
+                    if (batch != null) {
+                        // The codec reuses the decoded batch, so copy the strokes out
+                        if (batch.getOp() == StrokeBatch.OP_REPLACE) {
+                            streamedStrokes.clear();
+                        }
+                        streamedStrokes.addAll(batch);
+                    }
+                    reply.reply(null);
+                });
+
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), RECORDING_STATUS_CHANNEL)
+                .setStreamHandler(new EventChannel.StreamHandler() {
+                    @Override
+                    public void onListen(Object arguments, EventChannel.EventSink events) {
+                        recordingStatusSink = events;
+                    }
+
+                    @Override
+                    public void onCancel(Object arguments) {
+                        recordingStatusSink = null;
+                    }
+                });
+
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), TELEMETRY_CHANNEL)
+                .setStreamHandler(Telemetry.get(this));
+
+        proxyGenerator = new ProxyGenerator(this);
+        videoRemuxer = new VideoRemuxer(this);
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), REMUX_PROGRESS_CHANNEL)
+                .setStreamHandler(videoRemuxer);
+
+        videoExporter = new VideoExporter(this);
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), EXPORT_PROGRESS_CHANNEL)
+                .setStreamHandler(videoExporter);
+
         new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), MEDIASTORE_CHANNEL)
                 .setMethodCallHandler((call, result) -> {
                     if (call.method.equals("saveVideoToGallery")) {
                         String sourcePath = call.argument("sourcePath");
                         String fileName = call.argument("fileName");
                         String relativePath = call.argument("relativePath");
-                        try {
-                            String savedPath = saveVideoToMediaStore(sourcePath, fileName, relativePath);
-                            result.success(savedPath);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error saving to Media Store: " + e.getMessage());
-                            result.error("MEDIA_STORE_ERROR", e.getMessage(), null);
-                        }
+                        String exportId = videoExporter.newExportId(call.argument("exportId"));
+                        videoExporter.exportToMediaStore(exportId, sourcePath, fileName, relativePath,
+                                new VideoExporter.Callback() {
+                                    @Override
+                                    public void onSuccess(Uri uri, String savedPath) {
+                                        result.success(savedPath);
+                                    }
+
+                                    @Override
+                                    public void onCancelled() {
+                                        result.error("MEDIA_STORE_CANCELLED", "Export cancelled", null);
+                                    }
+
+                                    @Override
+                                    public void onError(Exception e) {
+                                        Log.e(TAG, "Error saving to Media Store: " + e.getMessage());
+                                        result.error("MEDIA_STORE_ERROR", e.getMessage(), null);
+                                    }
+                                });
+                    } else if (call.method.equals("cancelExport")) {
+                        String exportId = call.argument("exportId");
+                        result.success(exportId != null && videoExporter.cancel(exportId));
                     } else {
                         result.notImplemented();
                     }
                 });
 
-        flutterEngine.getPlugins().add(new GallerySaverPlugin());
+        flutterEngine.getPlugins().add(new GallerySaverPlugin(videoExporter));
+        flutterEngine.getPlugins().add(new FrameGrabberPlugin());
     }
 
-    private String saveVideoToMediaStore(String sourcePath, String fileName, String relativePath) throws Exception {
-        File sourceFile = new File(sourcePath);
-        if (!sourceFile.exists()) {
-            throw new Exception("Source file does not exist: " + sourcePath);
+    private void startScreenRecording(ClipRequest clip) {
+        if (session != null && session.isOpen()) {
+            session.startClip(clip);
+        } else {
+            requestProjection(clip);
         }
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.Video.Media.DISPLAY_NAME, fileName);
-        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
-        values.put(MediaStore.Video.Media.RELATIVE_PATH, "Movies/" + relativePath);
-        values.put(MediaStore.Video.Media.IS_PENDING, 1);
+    private void requestProjection(ClipRequest clip) {
+        pendingClip = clip;
+        startActivityForResult(
+                projectionManager.createScreenCaptureIntent(),
+                SCREEN_RECORD_REQUEST_CODE
+        );
+    }
+
+    // With {detailed: true} the result is always {path, segments?, adaptations}, where adaptations
+    // lists the live bitrate and frame rate changes made for heat, battery or storage
+    private void stopScreenRecording(MethodCall call, MethodChannel.Result result) {
+        boolean detailed = Boolean.TRUE.equals(call.argument("detailed"));
+        if (session == null) {
+            Log.w(TAG, "No recording session to stop");
+            result.success(null);
+            return;
+        }
+        session.stopClip((outputPath, segmentPaths, adaptations) -> {
+            Log.d(TAG, "Received output path from service: " + outputPath);
+            lastOutputPath = outputPath;
+            if (segmentPaths != null || detailed) {
+                Map<String, Object> recording = new HashMap<>();
+                recording.put("path", lastOutputPath);
+                if (segmentPaths != null) {
+                    recording.put("segments", segmentPaths);
+                }
+                if (detailed) {
+                    recording.put("adaptations", adaptations);
+                }
+                result.success(recording);
+            } else {
+                result.success(lastOutputPath);
+            }
+            Log.d(TAG, "Sent outputPath to Flutter: " + lastOutputPath);
+        });
+        if (!keepSessionOpen) {
+            closeSession();
+        }
+    }
 
-        Uri uri = getContentResolver().insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
-        if (uri == null) throw new Exception("Failed to create Media Store entry");
+    // Still of the recorded area, drawings included, taken from the recording pipeline instead of
+    // rasterizing the widget tree; {outputPath, format: "jpeg"|"webp", quality} returns the path
+    private void captureSnapshot(MethodCall call, MethodChannel.Result result) {
+        String outputPath = call.argument("outputPath");
+        String format = call.argument("format");
+        Integer quality = call.argument("quality");
+        if (outputPath == null) {
+            result.error("INVALID_ARGUMENTS", "outputPath is required", null);
+            return;
+        }
+        if (session == null || !session.isRecording()) {
+            result.error("NOT_RECORDING", "No clip recording", null);
+            return;
+        }
+        session.captureSnapshot(outputPath, format, quality != null ? quality : 90, new SnapshotReader.Callback() {
+            @Override
+            public void onSnapshot(String path) {
+                result.success(path);
+            }
 
-        try (OutputStream out = getContentResolver().openOutputStream(uri);
-             FileInputStream in = new FileInputStream(sourceFile)) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = in.read(buffer)) != -1) {
-                out.write(buffer, 0, len);
+            @Override
+            public void onError(Exception e) {
+                result.error("SNAPSHOT_ERROR", "Failed to capture snapshot: " + e.getMessage(), null);
             }
-            out.flush();
+        });
+    }
+
+    // Burns the editor's drawings into the source video offline instead of screen-recording playback
+    private void renderAnnotatedVideo(MethodCall call, MethodChannel.Result result) {
+        String sourcePath = call.argument("sourcePath");
+        Number viewWidth = call.argument("viewWidth");
+        Number viewHeight = call.argument("viewHeight");
+        if (sourcePath == null || !new File(sourcePath).exists() || viewWidth == null || viewHeight == null) {
+            result.error("INVALID_ARGUMENTS", "sourcePath, viewWidth and viewHeight are required", null);
+            return;
         }
+        Number startMs = call.argument("startMs");
+        Number endMs = call.argument("endMs");
+        // useStreamedStrokes takes the drawings sent over STROKES_CHANNEL instead of "drawings"
+        AnnotationTimeline timeline = Boolean.TRUE.equals(call.argument("useStreamedStrokes"))
+                ? AnnotationTimeline.fromStrokes(
+                        startMs != null ? startMs.longValue() : 0,
+                        endMs != null ? endMs.longValue() : 0,
+                        call.argument("pauses"),
+                        streamedStrokes)
+                : AnnotationTimeline.fromArguments(
+                        startMs != null ? startMs.longValue() : 0,
+                        endMs != null ? endMs.longValue() : 0,
+                        call.argument("pauses"),
+                        call.argument("drawings"));
 
-        values.clear();
-        values.put(MediaStore.Video.Media.IS_PENDING, 0);
-        getContentResolver().update(uri, values, null, null);
+        String outputPath = newOutputPath();
+        if (annotationRenderer == null) {
+            annotationRenderer = new AnnotationRenderer(this);
+        }
+        annotationRenderer.render(sourcePath, outputPath, timeline,
+                viewWidth.floatValue(), viewHeight.floatValue(), call.argument("preset"),
+                new AnnotationRenderer.Callback() {
+                    @Override
+                    public void onSuccess(String path) {
+                        result.success(path);
+                    }
 
-        String finalPath = "Movies/" + relativePath + "/" + fileName;
-        Log.d(TAG, "Video saved to Media Store: " + finalPath);
-        return finalPath;
+                    @Override
+                    public void onError(Exception e) {
+                        result.error("RENDER_ERROR", "Failed to render annotations: " + e.getMessage(), null);
+                    }
+                });
     }
 
-    private void startScreenRecording() {
-        startActivityForResult(
-                projectionManager.createScreenCaptureIntent(),
-                SCREEN_RECORD_REQUEST_CODE
-        );
+    /**
+     * Cut-only trims and joins without re-encoding. "inputs" is a list of {path, startMs, endMs}
+     * ranges written back to back, an endMs of 0 meaning the end of the video; each range starts
+     * at the keyframe at or before startMs. Progress goes to REMUX_PROGRESS_CHANNEL by remuxId.
+     */
+    private void remuxVideo(MethodCall call, MethodChannel.Result result) {
+        List<Map<String, Object>> inputs = call.argument("inputs");
+        if (inputs == null || inputs.isEmpty()) {
+            result.error("INVALID_ARGUMENTS", "inputs are required", null);
+            return;
+        }
+        List<VideoRemuxer.Range> ranges = new ArrayList<>(inputs.size());
+        for (Map<String, Object> input : inputs) {
+            Object path = input.get("path");
+            if (!(path instanceof String) || !new File((String) path).exists()) {
+                result.error("INVALID_ARGUMENTS", "Input not found: " + path, null);
+                return;
+            }
+            Object startMs = input.get("startMs");
+            Object endMs = input.get("endMs");
+            if ((startMs != null && !(startMs instanceof Number)) || (endMs != null && !(endMs instanceof Number))) {
+                result.error("INVALID_ARGUMENTS", "startMs and endMs must be numbers: " + path, null);
+                return;
+            }
+            ranges.add(new VideoRemuxer.Range((String) path,
+                    startMs != null ? ((Number) startMs).longValue() * 1000 : 0,
+                    endMs != null ? ((Number) endMs).longValue() * 1000 : 0));
+        }
+        String outputPath = call.argument("outputPath");
+        videoRemuxer.remux(videoRemuxer.newRemuxId(call.argument("remuxId")), ranges,
+                outputPath != null ? outputPath : newOutputPath(),
+                new VideoRemuxer.Callback() {
+                    @Override
+                    public void onSuccess(String path) {
+                        result.success(path);
+                    }
+
+                    @Override
+                    public void onCancelled() {
+                        result.error("REMUX_CANCELLED", "Remux cancelled", null);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        result.error("REMUX_ERROR", "Failed to remux: " + e.getMessage(), null);
+                    }
+                });
+    }
+
+    /**
+     * Returns the path the editor should play for an imported video: a cached or newly made
+     * low-resolution proxy, or the video itself when it is small enough. Optional budgetBytes
+     * caps the proxy cache.
+     */
+    private void createProxy(MethodCall call, MethodChannel.Result result) {
+        String path = call.argument("path");
+        if (path == null) {
+            result.error("INVALID_ARGUMENTS", "path is required", null);
+            return;
+        }
+        Number budgetBytes = call.argument("budgetBytes");
+        if (budgetBytes != null) {
+            proxyGenerator.setBudgetBytes(budgetBytes.longValue());
+        }
+        proxyGenerator.createProxy(path, new ProxyGenerator.Callback() {
+            @Override
+            public void onReady(String playbackPath) {
+                result.success(playbackPath);
+            }
+
+            @Override
+            public void onCancelled() {
+                result.error("PROXY_CANCELLED", "Proxy cancelled", null);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                result.error("PROXY_ERROR", "Failed to create proxy: " + e.getMessage(), null);
+            }
+        });
+    }
+
+    private String newOutputPath() {
+        File dir = new File(getExternalFilesDir(null), "aiTacticals");
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return new File(dir, "ai_tactical_" + System.currentTimeMillis() + ".mp4").getAbsolutePath();
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (sessionBound) {
+            unbindService(sessionConnection);
+            sessionBound = false;
+        }
     }
 
     @Override
@@ -138,39 +448,43 @@ public class MainActivity extends FlutterActivity {
             Intent serviceIntent = new Intent(this, ScreenRecordService.class);
             serviceIntent.putExtra("resultCode", resultCode);
             serviceIntent.putExtra("data", data);
-            serviceIntent.putExtra("left", left);
-            serviceIntent.putExtra("top", top);
-            serviceIntent.putExtra("width", width);
-            serviceIntent.putExtra("height", height);
+            if (pendingClip != null) {
+                pendingClip.writeTo(serviceIntent);
+            }
             startService(serviceIntent);
+            if (!sessionBound) {
+                sessionBound = bindService(new Intent(this, ScreenRecordService.class), sessionConnection, 0);
+            }
+        } else if (requestCode == SCREEN_RECORD_REQUEST_CODE && pendingClip != null) {
+            sendRecordingStatus("error", "Screen capture permission denied");
         }
+        pendingClip = null;
+    }
+
+    private void sendRecordingStatus(String status, String message) {
+        Log.d(TAG, "Recording status " + status + (message != null ? ": " + message : ""));
+        if (recordingStatusSink == null) return;
+        Map<String, Object> event = new HashMap<>();
+        event.put("status", status);
+        event.put("message", message);
+        recordingStatusSink.success(event);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        instance = null; // Clear static reference to avoid memory leaks
-    }
-
-    // Static method for ScreenRecordService to call
-    public static void onRecordingStopped(String outputPath) {
-        if (instance != null) {
-            instance.handleRecordingStopped(outputPath);
-        } else {
-            Log.e(TAG, "MainActivity instance is null");
+        if (videoExporter != null) {
+            videoExporter.shutdown();
         }
-    }
-
-    // Instance method to handle the callback
-    private void handleRecordingStopped(String outputPath) {
-        Log.d(TAG, "Received output path from service: " + outputPath);
-        lastOutputPath = outputPath;
-        if (pendingResult != null) {
-            pendingResult.success(lastOutputPath);
-            Log.d(TAG, "Sent outputPath to Flutter: " + lastOutputPath);
-            pendingResult = null;
-        } else {
-            Log.w(TAG, "No pending result to send outputPath");
+        if (annotationRenderer != null) {
+            annotationRenderer.shutdown();
+        }
+        if (videoRemuxer != null) {
+            videoRemuxer.shutdown();
+        }
+        if (proxyGenerator != null) {
+            proxyGenerator.shutdown();
         }
+        closeSession();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+package com.example.analysis_ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Top-level ISO BMFF box helpers over a {@link FileChannel}. Only box headers are read, so the
+ * cost does not depend on the size of the media data. Plain Java, like {@link FileTransfer}.
+ */
+final class Mp4Boxes {
+    static final int HEADER_BYTES = 8;
+    static final int LARGE_HEADER_BYTES = 16;
+
+    private Mp4Boxes() {
+    }
+
+    static int fourCc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    /**
+     * Finds the top-level box of the given type and returns its position and total size, or null.
+     * Headers are read one by one, so a moov behind a large mdat costs only a few reads.
+     */
+    static long[] findBox(FileChannel channel, int type) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_BYTES);
+        long fileSize = channel.size();
+        long position = 0;
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            if (channel.read(header, position) < HEADER_BYTES) break;
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            if (size == 1) {
+                if (header.position() < LARGE_HEADER_BYTES) break;
+                size = header.getLong(8);
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < HEADER_BYTES || position + size > fileSize) break;
+            if (header.getInt(4) == type) return new long[]{position, size};
+            position += size;
+        }
+        return null;
+    }
+
+    /**
+     * Returns where the last complete top-level box ends. Anything after it, like the unused
+     * tail of a preallocated file, is not part of the movie. Walking stops at the first header
+     * that is zeroed, truncated or runs past the end of the file.
+     */
+    static long endOfBoxes(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_BYTES);
+        long fileSize = channel.size();
+        long position = 0;
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            if (channel.read(header, position) < HEADER_BYTES) break;
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            int type = header.getInt(4);
+            if (type == 0) break;
+            if (size == 1) {
+                if (header.position() < LARGE_HEADER_BYTES) break;
+                size = header.getLong(8);
+            } else if (size == 0) {
+                // Extends to the end of the file by definition
+                return fileSize;
+            }
+            if (size < HEADER_BYTES || position + size > fileSize) break;
+            position += size;
+        }
+        return position;
+    }
+}
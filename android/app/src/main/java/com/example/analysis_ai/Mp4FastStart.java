@@ -0,0 +1,129 @@
+package com.example.analysis_ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Moves the moov of a finished MP4 in front of the mdat ("faststart"), so gallery playback and
+ * uploads can start before the whole file has been read. MediaMuxer only writes the moov up
+ * front when it fits the space it reserved there; longer clips get it appended at the end.
+ *
+ * <p>The moov, a few hundred KB even for a long match, is mapped and copied to the heap to shift
+ * its stco/co64 chunk offsets. Everything else is copied channel to channel in
+ * {@link FileTransfer} chunks, so media data never passes through the heap. The new layout is
+ * written to a temp file that replaces the original by rename, so a crash at any point leaves
+ * either the original or the rewritten file. Plain Java, like {@link FileTransfer}.
+ */
+final class Mp4FastStart {
+    static final String TEMP_SUFFIX = ".faststart";
+    private static final int MOOV = Mp4Boxes.fourCc("moov");
+    private static final int MDAT = Mp4Boxes.fourCc("mdat");
+    private static final int STCO = Mp4Boxes.fourCc("stco");
+    private static final int CO64 = Mp4Boxes.fourCc("co64");
+    private static final int[] CONTAINERS = {MOOV, Mp4Boxes.fourCc("trak"), Mp4Boxes.fourCc("mdia"),
+            Mp4Boxes.fourCc("minf"), Mp4Boxes.fourCc("stbl")};
+
+    private Mp4FastStart() {
+    }
+
+    /**
+     * Rewrites {@code file} with the moov in front. Returns false if it already is, or if a
+     * 32-bit stco would overflow and the file is left as it is.
+     */
+    static boolean apply(File file) throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel source = in.getChannel();
+            long[] moov = Mp4Boxes.findBox(source, MOOV);
+            long[] mdat = Mp4Boxes.findBox(source, MDAT);
+            if (moov == null || mdat == null) {
+                throw new IOException("Not a finished MP4: " + file);
+            }
+            if (moov[0] < mdat[0]) return false;
+            if (moov[1] > Integer.MAX_VALUE) {
+                throw new IOException("moov too large in " + file);
+            }
+            long size = source.size();
+            if (file.getAbsoluteFile().getParentFile().getUsableSpace() < size) {
+                throw new IOException("Not enough space to rewrite " + file);
+            }
+            ByteBuffer box = ByteBuffer.allocate((int) moov[1]);
+            box.put(source.map(FileChannel.MapMode.READ_ONLY, moov[0], moov[1]));
+            box.flip();
+            // Every chunk lives in the mdat, which moves back by exactly the moov's size
+            if (!shiftChunkOffsets(box, 0, box.limit(), moov[1], false)) return false;
+            shiftChunkOffsets(box, 0, box.limit(), moov[1], true);
+
+            try (FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                FileTransfer.transfer(source, 0, mdat[0], target, null);
+                while (box.hasRemaining()) {
+                    target.write(box);
+                }
+                FileTransfer.transfer(source, mdat[0], moov[0] - mdat[0], target, null);
+                long tail = moov[0] + moov[1];
+                FileTransfer.transfer(source, tail, size - tail, target, null);
+                target.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+        return true;
+    }
+
+    /**
+     * Adds {@code shift} to every chunk offset below the box at {@code start}. With
+     * {@code apply} false only checks that all stco entries stay within 32 bits.
+     */
+    private static boolean shiftChunkOffsets(ByteBuffer box, int start, int end, long shift, boolean apply) {
+        int position = start;
+        while (position + Mp4Boxes.HEADER_BYTES <= end) {
+            long size = box.getInt(position) & 0xFFFFFFFFL;
+            int header = Mp4Boxes.HEADER_BYTES;
+            if (size == 1) {
+                size = box.getLong(position + 8);
+                header = Mp4Boxes.LARGE_HEADER_BYTES;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < header || position + size > end) break;
+            int type = box.getInt(position + 4);
+            // Payload: version/flags, entry count, entries
+            int entries = position + header + 8;
+            if (type == STCO) {
+                int count = box.getInt(position + header + 4);
+                for (int i = 0; i < count; i++) {
+                    long offset = (box.getInt(entries + i * 4) & 0xFFFFFFFFL) + shift;
+                    if (offset > 0xFFFFFFFFL) return false;
+                    if (apply) box.putInt(entries + i * 4, (int) offset);
+                }
+            } else if (type == CO64) {
+                int count = box.getInt(position + header + 4);
+                for (int i = 0; apply && i < count; i++) {
+                    box.putLong(entries + i * 8, box.getLong(entries + i * 8) + shift);
+                }
+            } else if (isContainer(type)
+                    && !shiftChunkOffsets(box, position + header, (int) (position + size), shift, apply)) {
+                return false;
+            }
+            position += (int) size;
+        }
+        return true;
+    }
+
+    private static boolean isContainer(int type) {
+        for (int container : CONTAINERS) {
+            if (container == type) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.analysis_ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Presentation times of the sync samples of an MP4's video track, for snapping seeks and laying
+ * out a scrub strip. Only the moov is mapped and walked (hdlr, mdhd, stts, stss, ctts), so the
+ * cost depends on the sample count and not on the size of the media data.
+ *
+ * <p>The result is cached next to the video in a {@link #SIDECAR_SUFFIX} file: a magic, the
+ * video's length and modification time, then one int of milliseconds per keyframe. A sidecar
+ * that does not match the video is rebuilt. Plain Java, like {@link FileTransfer}.
+ */
+final class Mp4KeyframeIndex {
+    static final String SIDECAR_SUFFIX = ".kfidx";
+    private static final int MAGIC = Mp4Boxes.fourCc("KFI1");
+    private static final int MOOV = Mp4Boxes.fourCc("moov");
+    private static final int TRAK = Mp4Boxes.fourCc("trak");
+    private static final int MDIA = Mp4Boxes.fourCc("mdia");
+    private static final int MINF = Mp4Boxes.fourCc("minf");
+    private static final int STBL = Mp4Boxes.fourCc("stbl");
+    private static final int HDLR = Mp4Boxes.fourCc("hdlr");
+    private static final int MDHD = Mp4Boxes.fourCc("mdhd");
+    private static final int STTS = Mp4Boxes.fourCc("stts");
+    private static final int STSS = Mp4Boxes.fourCc("stss");
+    private static final int CTTS = Mp4Boxes.fourCc("ctts");
+    private static final int VIDE = Mp4Boxes.fourCc("vide");
+
+    private final long[] timesMs;
+
+    private Mp4KeyframeIndex(long[] timesMs) {
+        this.timesMs = timesMs;
+    }
+
+    static File sidecarFile(File video) {
+        return new File(video.getPath() + SIDECAR_SUFFIX);
+    }
+
+    /** Reads the sidecar if it is current, otherwise parses the video and writes a new one. */
+    static Mp4KeyframeIndex load(File video) throws IOException {
+        File sidecar = sidecarFile(video);
+        Mp4KeyframeIndex index = readSidecar(sidecar, video);
+        if (index != null) return index;
+        index = parse(video);
+        try {
+            index.writeSidecar(sidecar, video);
+        } catch (IOException e) {
+            // A read-only location only costs a parse next time
+            sidecar.delete();
+        }
+        return index;
+    }
+
+    static Mp4KeyframeIndex parse(File video) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(video, "r")) {
+            FileChannel channel = file.getChannel();
+            long[] moov = Mp4Boxes.findBox(channel, MOOV);
+            if (moov == null) {
+                throw new IOException("No moov in " + video);
+            }
+            if (moov[1] > Integer.MAX_VALUE) {
+                throw new IOException("moov too large in " + video);
+            }
+            ByteBuffer box = channel.map(FileChannel.MapMode.READ_ONLY, moov[0], moov[1]);
+            int position = headerSize(box, 0);
+            while (position + Mp4Boxes.HEADER_BYTES <= box.limit()) {
+                int size = boxSize(box, position);
+                if (size < Mp4Boxes.HEADER_BYTES) break;
+                if (box.getInt(position + 4) == TRAK) {
+                    long[] times = videoKeyframes(box, position, position + size);
+                    if (times != null) return new Mp4KeyframeIndex(times);
+                }
+                position += size;
+            }
+            throw new IOException("No video track in " + video);
+        }
+    }
+
+    /** Keyframe times in ascending order; shared, do not modify. */
+    long[] getTimesMs() {
+        return timesMs;
+    }
+
+    int size() {
+        return timesMs.length;
+    }
+
+    /** The last keyframe at or before {@code timeMs}, or the first keyframe. */
+    long floor(long timeMs) {
+        if (timesMs.length == 0) return timeMs;
+        int i = Arrays.binarySearch(timesMs, timeMs);
+        if (i >= 0) return timesMs[i];
+        return timesMs[Math.max(0, -i - 2)];
+    }
+
+    /** The first keyframe at or after {@code timeMs}, or the last keyframe. */
+    long ceiling(long timeMs) {
+        if (timesMs.length == 0) return timeMs;
+        int i = Arrays.binarySearch(timesMs, timeMs);
+        if (i >= 0) return timesMs[i];
+        return timesMs[Math.min(timesMs.length - 1, -i - 1)];
+    }
+
+    /** Returns null for a trak that is not video. */
+    private static long[] videoKeyframes(ByteBuffer box, int start, int end) throws IOException {
+        int mdia = child(box, start, end, MDIA);
+        if (mdia < 0) return null;
+        int mdiaEnd = mdia + boxSize(box, mdia);
+        int hdlr = child(box, mdia, mdiaEnd, HDLR);
+        // version/flags and pre_defined come before handler_type
+        if (hdlr < 0 || box.getInt(hdlr + Mp4Boxes.HEADER_BYTES + 8) != VIDE) return null;
+        int mdhd = child(box, mdia, mdiaEnd, MDHD);
+        int minf = child(box, mdia, mdiaEnd, MINF);
+        int stbl = minf < 0 ? -1 : child(box, minf, minf + boxSize(box, minf), STBL);
+        if (mdhd < 0 || stbl < 0) {
+            throw new IOException("Incomplete video track");
+        }
+        int mdhdPayload = mdhd + Mp4Boxes.HEADER_BYTES;
+        // Version 1 has 64-bit creation and modification times in front of the timescale
+        long timescale = box.getInt(mdhdPayload + (box.get(mdhdPayload) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+        if (timescale == 0) {
+            throw new IOException("Zero timescale");
+        }
+        int stblEnd = stbl + boxSize(box, stbl);
+        int stts = child(box, stbl, stblEnd, STTS);
+        if (stts < 0) {
+            throw new IOException("No stts");
+        }
+        int stss = child(box, stbl, stblEnd, STSS);
+        int ctts = child(box, stbl, stblEnd, CTTS);
+
+        // stts and ctts are run-length tables; walk both alongside the sorted sync sample numbers
+        int sttsEntries = box.getInt(stts + 12);
+        int sttsEntry = 0;
+        long sttsRunEnd = 0;
+        long sttsDelta = 0;
+        long runStartSample = 0;
+        long runStartDts = 0;
+        int cttsEntries = ctts < 0 ? 0 : box.getInt(ctts + 12);
+        boolean signedCtts = ctts >= 0 && box.get(ctts + Mp4Boxes.HEADER_BYTES) == 1;
+        int cttsEntry = 0;
+        long cttsRunEnd = 0;
+        long cttsOffset = 0;
+
+        long sampleCount = 0;
+        for (int i = 0; i < sttsEntries; i++) {
+            sampleCount += box.getInt(stts + 16 + i * 8) & 0xFFFFFFFFL;
+        }
+        int count = stss < 0 ? (int) Math.min(sampleCount, Integer.MAX_VALUE) : box.getInt(stss + 12);
+        long[] times = new long[count];
+        int found = 0;
+        for (int k = 0; k < count; k++) {
+            // Sample numbers in stss are 1-based
+            long sample = stss < 0 ? k : (box.getInt(stss + 16 + k * 4) & 0xFFFFFFFFL) - 1;
+            while (sample >= sttsRunEnd && sttsEntry < sttsEntries) {
+                runStartDts += (sttsRunEnd - runStartSample) * sttsDelta;
+                runStartSample = sttsRunEnd;
+                sttsRunEnd += box.getInt(stts + 16 + sttsEntry * 8) & 0xFFFFFFFFL;
+                sttsDelta = box.getInt(stts + 20 + sttsEntry * 8) & 0xFFFFFFFFL;
+                sttsEntry++;
+            }
+            if (sample >= sttsRunEnd) break;
+            long dts = runStartDts + (sample - runStartSample) * sttsDelta;
+            while (sample >= cttsRunEnd && cttsEntry < cttsEntries) {
+                cttsRunEnd += box.getInt(ctts + 16 + cttsEntry * 8) & 0xFFFFFFFFL;
+                int offset = box.getInt(ctts + 20 + cttsEntry * 8);
+                cttsOffset = signedCtts ? offset : offset & 0xFFFFFFFFL;
+                cttsEntry++;
+            }
+            long pts = sample < cttsRunEnd ? dts + cttsOffset : dts;
+            times[found++] = Math.max(0, pts) * 1000 / timescale;
+        }
+        times = found == count ? times : Arrays.copyOf(times, found);
+        // Reordered frames can leave presentation order differing from decode order
+        Arrays.sort(times);
+        return times;
+    }
+
+    /** Position of the first child box of the given type in [start + header, end), or -1. */
+    private static int child(ByteBuffer box, int start, int end, int type) {
+        int position = start + headerSize(box, start);
+        while (position + Mp4Boxes.HEADER_BYTES <= end) {
+            int size = boxSize(box, position);
+            if (size < Mp4Boxes.HEADER_BYTES || position + size > end) return -1;
+            if (box.getInt(position + 4) == type) return position;
+            position += size;
+        }
+        return -1;
+    }
+
+    private static int headerSize(ByteBuffer box, int position) {
+        return box.getInt(position) == 1 ? Mp4Boxes.LARGE_HEADER_BYTES : Mp4Boxes.HEADER_BYTES;
+    }
+
+    /** Size of a box inside the moov; these always fit an int since the moov was mapped. */
+    private static int boxSize(ByteBuffer box, int position) {
+        long size = box.getInt(position) & 0xFFFFFFFFL;
+        if (size == 1) size = box.getLong(position + 8);
+        else if (size == 0) size = box.limit() - position;
+        return size > box.limit() - position ? -1 : (int) size;
+    }
+
+    private static Mp4KeyframeIndex readSidecar(File sidecar, File video) {
+        if (!sidecar.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readLong() != video.length() || in.readLong() != video.lastModified()) {
+                return null;
+            }
+            long[] times = new long[in.readInt()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = in.readInt() & 0xFFFFFFFFL;
+            }
+            return new Mp4KeyframeIndex(times);
+        } catch (IOException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private void writeSidecar(File sidecar, File video) throws IOException {
+        File temp = new File(sidecar.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(video.length());
+            out.writeLong(video.lastModified());
+            out.writeInt(timesMs.length);
+            for (long time : timesMs) {
+                out.writeInt((int) time);
+            }
+        }
+        if (!temp.renameTo(sidecar)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + sidecar);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.example.analysis_ai;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread-safe front end for {@link MediaMuxer}. The video encoder writes from the recording
+ * handler thread and the audio encoder from its own thread, so every muxer call goes through
+ * one lock. Samples that arrive before every track has reported its format are held back and
+ * flushed once the muxer starts.
+ *
+ * <p>With a {@link SegmentPolicy} the recording is split into self-contained MP4 segments. A new
+ * segment is opened on the first video keyframe past the duration or size limit, so no frame is
+ * dropped, and the finished segment is finalized on a background thread while encoding goes on.
+ * Only the open segment is lost if the process dies, and stopping only finalizes that segment.
+ *
+ * <p>With a preallocation size every file gets its blocks reserved up front (API 26+, where the
+ * muxer can write to a descriptor we opened), so a full disk cannot fail a write halfway and
+ * writes do not stall on allocation. The unused tail is cut off once the file is finalized.
+ */
+class MuxerWriter {
+    private static final String TAG = "MuxerWriter";
+    static final int TRACK_VIDEO = 0;
+    static final int TRACK_AUDIO = 1;
+    private static final int MAX_PENDING_SAMPLES = 256;
+
+    interface Listener {
+        void onFinished(List<String> outputPaths, boolean success);
+    }
+
+    /** Limits for a single segment; a limit of zero is ignored. */
+    static class SegmentPolicy {
+        final long maxDurationUs;
+        final long maxBytes;
+        final int maxSegments;
+
+        /** @param maxSegments oldest finished segments beyond this count are deleted, 0 keeps all */
+        SegmentPolicy(long maxDurationUs, long maxBytes, int maxSegments) {
+            this.maxDurationUs = maxDurationUs;
+            this.maxBytes = maxBytes;
+            this.maxSegments = maxSegments;
+        }
+
+        boolean isEnabled() {
+            return maxDurationUs > 0 || maxBytes > 0;
+        }
+    }
+
+    private static class PendingSample {
+        final int track;
+        final ByteBuffer data;
+        final MediaCodec.BufferInfo info;
+
+        PendingSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+            this.track = track;
+            this.data = data;
+            this.info = info;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final String outputPath;
+    private final int expectedTracks;
+    private final Listener listener;
+    private final SegmentPolicy segmentPolicy;
+    private final long preallocateBytes;
+    // Preallocated files stay open until their muxer is finalized, then get trimmed
+    private final Map<String, RandomAccessFile> preallocated = new HashMap<>();
+    private final ExecutorService finalizer = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "MuxerFinalizer"));
+    private final MediaFormat[] trackFormat = new MediaFormat[2];
+    private final int[] trackIndex = {-1, -1};
+    private final boolean[] trackEnded = new boolean[2];
+    private final ArrayDeque<PendingSample> pending = new ArrayDeque<>();
+    private final List<String> segmentPaths = new ArrayList<>();
+    // Only ever grows; trimSegments shrinks segmentPaths, so its size cannot name the next file
+    private int nextSegmentIndex;
+    private MediaMuxer muxer;
+    private int addedTracks;
+    private int endedTracks;
+    private boolean started;
+    private boolean finished;
+    private long segmentStartUs = -1;
+    private long segmentBytes;
+    private long totalBytes;
+    private int droppedSamples;
+
+    MuxerWriter(String outputPath, boolean withAudio, Listener listener) throws IOException {
+        this(outputPath, withAudio, null, listener);
+    }
+
+    MuxerWriter(String outputPath, boolean withAudio, SegmentPolicy segmentPolicy, Listener listener)
+            throws IOException {
+        this(outputPath, withAudio, segmentPolicy, 0, listener);
+    }
+
+    /** @param preallocateBytes blocks to reserve for each output file, 0 for none */
+    MuxerWriter(String outputPath, boolean withAudio, SegmentPolicy segmentPolicy, long preallocateBytes,
+                Listener listener) throws IOException {
+        this.outputPath = outputPath;
+        this.preallocateBytes = preallocateBytes;
+        this.expectedTracks = withAudio ? 2 : 1;
+        this.listener = listener;
+        this.segmentPolicy = segmentPolicy != null && segmentPolicy.isEnabled() ? segmentPolicy : null;
+        muxer = openMuxer();
+    }
+
+    String getOutputPath() {
+        return outputPath;
+    }
+
+    /** True once every track has reported its format and samples go straight to the muxer. */
+    boolean isStarted() {
+        synchronized (lock) {
+            return started;
+        }
+    }
+
+    /** Bytes of sample data written across all segments, for telemetry. */
+    long getBytesWritten() {
+        synchronized (lock) {
+            return totalBytes;
+        }
+    }
+
+    /** Preallocated bytes of the open file not written yet, a lower bound of its free room. */
+    long getPreallocatedRemaining() {
+        synchronized (lock) {
+            String path = segmentPaths.get(segmentPaths.size() - 1);
+            return preallocated.containsKey(path) ? Math.max(0, preallocateBytes - segmentBytes) : 0;
+        }
+    }
+
+    /** Samples dropped because the pending queue was full before the muxer started. */
+    int getDroppedSamples() {
+        synchronized (lock) {
+            return droppedSamples;
+        }
+    }
+
+    void addTrack(int track, MediaFormat format) {
+        synchronized (lock) {
+            if (finished || trackIndex[track] >= 0) return;
+            trackFormat[track] = format;
+            trackIndex[track] = muxer.addTrack(format);
+            addedTracks++;
+            Log.d(TAG, "Added track " + track + " with format " + format);
+            if (addedTracks == expectedTracks) {
+                muxer.start();
+                started = true;
+                while (!pending.isEmpty()) {
+                    PendingSample sample = pending.poll();
+                    write(sample.track, sample.data, sample.info);
+                }
+            }
+        }
+    }
+
+    void writeSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size == 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (finished) return;
+            if (started) {
+                write(track, data, info);
+                return;
+            }
+            if (pending.size() >= MAX_PENDING_SAMPLES) {
+                Log.w(TAG, "Dropping sample while waiting for all tracks");
+                droppedSamples++;
+                return;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(info.size);
+            data.position(info.offset);
+            data.limit(info.offset + info.size);
+            copy.put(data);
+            copy.flip();
+            MediaCodec.BufferInfo copyInfo = new MediaCodec.BufferInfo();
+            copyInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+            pending.add(new PendingSample(track, copy, copyInfo));
+        }
+    }
+
+    private void write(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if (track == TRACK_VIDEO && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+            if (segmentStartUs < 0) {
+                segmentStartUs = info.presentationTimeUs;
+            } else if (shouldRotate(info.presentationTimeUs)) {
+                rotate(info.presentationTimeUs);
+            }
+        }
+        muxer.writeSampleData(trackIndex[track], data, info);
+        segmentBytes += info.size;
+        totalBytes += info.size;
+    }
+
+    private boolean shouldRotate(long presentationTimeUs) {
+        if (segmentPolicy == null) return false;
+        return (segmentPolicy.maxDurationUs > 0 && presentationTimeUs - segmentStartUs >= segmentPolicy.maxDurationUs)
+                || (segmentPolicy.maxBytes > 0 && segmentBytes >= segmentPolicy.maxBytes);
+    }
+
+    /** Swaps in a fresh muxer with the same track formats and finalizes the old one off-thread. */
+    private void rotate(long presentationTimeUs) {
+        MediaMuxer finishedMuxer = muxer;
+        String finishedPath = segmentPaths.get(segmentPaths.size() - 1);
+        int[] finishedTrackIndex = trackIndex.clone();
+        try {
+            muxer = openMuxer();
+            for (int track = 0; track < trackFormat.length; track++) {
+                if (trackFormat[track] != null) {
+                    trackIndex[track] = muxer.addTrack(trackFormat[track]);
+                }
+            }
+            muxer.start();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Unable to open next segment, continuing current one: " + e.getMessage());
+            if (muxer != finishedMuxer && muxer != null) {
+                muxer.release();
+                trimPreallocated(segmentPaths.remove(segmentPaths.size() - 1));
+            }
+            muxer = finishedMuxer;
+            System.arraycopy(finishedTrackIndex, 0, trackIndex, 0, trackIndex.length);
+            return;
+        }
+        segmentStartUs = presentationTimeUs;
+        segmentBytes = 0;
+        Log.d(TAG, "Rotated segment, finalizing " + finishedPath);
+        finalizer.execute(() -> {
+            stopMuxer(finishedMuxer, finishedPath);
+            trimSegments();
+        });
+    }
+
+    private MediaMuxer openMuxer() throws IOException {
+        String path = segmentPolicy == null ? outputPath : segmentPath(nextSegmentIndex++);
+        if (segmentPaths.contains(path)) {
+            // Opening it again would truncate a segment that is still being written or kept
+            throw new IOException("Segment already in use: " + path);
+        }
+        MediaMuxer next = null;
+        if (preallocateBytes > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try {
+                file.setLength(0);
+                if (StorageGuard.allocate(file.getFD(), preallocateBytes)) {
+                    next = new MediaMuxer(file.getFD(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                    preallocated.put(path, file);
+                }
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+            if (next == null) {
+                file.close();
+            }
+        }
+        if (next == null) {
+            next = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        }
+        segmentPaths.add(path);
+        return next;
+    }
+
+    /** Cuts the unused preallocated tail off a finalized file and closes it. */
+    private void trimPreallocated(String path) {
+        RandomAccessFile file;
+        synchronized (lock) {
+            file = preallocated.remove(path);
+        }
+        if (file == null) return;
+        try {
+            FileChannel channel = file.getChannel();
+            long end = Mp4Boxes.endOfBoxes(channel);
+            channel.truncate(end);
+            Log.d(TAG, "Trimmed " + path + " to " + end + " bytes");
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to trim " + path + ": " + e.getMessage());
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private String segmentPath(int index) {
+        String base = outputPath.endsWith(".mp4") ? outputPath.substring(0, outputPath.length() - 4) : outputPath;
+        return String.format(Locale.US, "%s_seg%03d.mp4", base, index);
+    }
+
+    private boolean stopMuxer(MediaMuxer target, String path) {
+        boolean stopped = false;
+        try {
+            target.stop();
+            stopped = true;
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error stopping MediaMuxer for " + path + ": " + e.getMessage());
+        } finally {
+            target.release();
+            trimPreallocated(path);
+        }
+        return stopped;
+    }
+
+    /** Deletes the oldest finished segments once the rolling limit is exceeded. */
+    private void trimSegments() {
+        if (segmentPolicy == null || segmentPolicy.maxSegments <= 0) return;
+        List<String> expired = new ArrayList<>();
+        synchronized (lock) {
+            while (segmentPaths.size() > segmentPolicy.maxSegments) {
+                expired.add(segmentPaths.remove(0));
+            }
+        }
+        for (String path : expired) {
+            Log.d(TAG, "Deleting expired segment " + path);
+            new File(path).delete();
+        }
+    }
+
+    void endTrack(int track) {
+        boolean allEnded;
+        synchronized (lock) {
+            if (finished || trackEnded[track]) return;
+            trackEnded[track] = true;
+            endedTracks++;
+            allEnded = endedTracks == expectedTracks;
+        }
+        if (allEnded) {
+            finish();
+        }
+    }
+
+    /** Stops the muxer regardless of which tracks have ended, e.g. after an encoder error. */
+    void abort() {
+        finish();
+    }
+
+    /** Releases the muxer without reporting, for pipelines torn down before they ever started. */
+    void release() {
+        synchronized (lock) {
+            if (finished) return;
+            finished = true;
+            pending.clear();
+            muxer.release();
+            muxer = null;
+        }
+        trimPreallocated(segmentPaths.get(segmentPaths.size() - 1));
+        finalizer.shutdown();
+    }
+
+    private void finish() {
+        MediaMuxer lastMuxer;
+        String lastPath;
+        boolean wasStarted;
+        synchronized (lock) {
+            if (finished) return;
+            finished = true;
+            pending.clear();
+            lastMuxer = muxer;
+            lastPath = segmentPaths.get(segmentPaths.size() - 1);
+            wasStarted = started;
+            muxer = null;
+        }
+        // Queued behind any segment still being finalized, so every file is complete when reported
+        finalizer.execute(() -> {
+            boolean success = false;
+            if (wasStarted) {
+                success = stopMuxer(lastMuxer, lastPath);
+            } else {
+                lastMuxer.release();
+                trimPreallocated(lastPath);
+            }
+            trimSegments();
+            List<String> paths;
+            synchronized (lock) {
+                paths = Collections.unmodifiableList(new ArrayList<>(segmentPaths));
+            }
+            Log.d(TAG, "Muxer finished, success: " + success + ", output: " + paths);
+            listener.onFinished(paths, success);
+        });
+        finalizer.shutdown();
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.analysis_ai;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Thermal and battery state of the device while recording, boiled down to a load level from
+ * {@link #LEVEL_NONE} to {@link #LEVEL_CRITICAL} that the service maps to a bitrate and frame
+ * rate. Thermal status changes are pushed (Android 10+) so a heating device is answered right
+ * away; the battery is only read when {@link #thermalLevel} or {@link #batteryLevel} is asked.
+ *
+ * <p>Used on the recording thread only; the thermal listener runs there as well.
+ */
+class PowerMonitor {
+    private static final String TAG = "PowerMonitor";
+    static final int LEVEL_NONE = 0;
+    static final int LEVEL_CRITICAL = 3;
+    // Battery percentages at which a discharging device steps down one and two levels
+    private static final int LOW_BATTERY_PERCENT = 15;
+    private static final int CRITICAL_BATTERY_PERCENT = 5;
+
+    private final PowerManager powerManager;
+    private final BatteryManager batteryManager;
+    private final Handler handler;
+    private final Runnable onThermalChange;
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+    /** @param onThermalChange run on {@code handler} whenever the thermal status changes */
+    PowerMonitor(Context context, Handler handler, Runnable onThermalChange) {
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        this.handler = handler;
+        this.onThermalChange = onThermalChange;
+    }
+
+    void start() {
+        if (thermalListener != null || powerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return;
+        thermalListener = status -> {
+            Log.d(TAG, "Thermal status " + status);
+            onThermalChange.run();
+        };
+        powerManager.addThermalStatusListener(handler::post, thermalListener);
+    }
+
+    void stop() {
+        if (thermalListener == null) return;
+        powerManager.removeThermalStatusListener(thermalListener);
+        thermalListener = null;
+    }
+
+    /** {@code PowerManager.THERMAL_STATUS_*}, or NONE where the platform does not report it. */
+    int thermalStatus() {
+        if (powerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return PowerManager.THERMAL_STATUS_NONE;
+        }
+        return powerManager.getCurrentThermalStatus();
+    }
+
+    /** Battery charge in percent, or -1 if unknown. */
+    int batteryPercent() {
+        if (batteryManager == null) return -1;
+        int percent = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+        return percent > 0 && percent <= 100 ? percent : -1;
+    }
+
+    int thermalLevel() {
+        int status = thermalStatus();
+        if (status >= PowerManager.THERMAL_STATUS_CRITICAL) return LEVEL_CRITICAL;
+        if (status >= PowerManager.THERMAL_STATUS_SEVERE) return 2;
+        if (status >= PowerManager.THERMAL_STATUS_MODERATE) return 1;
+        return LEVEL_NONE;
+    }
+
+    /** A discharging device with little charge left, or in battery saver, records lighter. */
+    int batteryLevel() {
+        if (batteryManager == null || batteryManager.isCharging()) return LEVEL_NONE;
+        int percent = batteryPercent();
+        if (percent >= 0 && percent <= CRITICAL_BATTERY_PERCENT) return 2;
+        if (percent >= 0 && percent <= LOW_BATTERY_PERCENT) return 1;
+        return powerManager != null && powerManager.isPowerSaveMode() ? 1 : LEVEL_NONE;
+    }
+}
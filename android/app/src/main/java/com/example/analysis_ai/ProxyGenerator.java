@@ -0,0 +1,198 @@
+package com.example.analysis_ai;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Low-resolution editing proxies for imported footage. A 4K/60 broadcast file stutters when
+ * scrubbed with drawings on top on mid-range devices, so the editor plays a small H.264 copy with
+ * a one second GOP ({@link EncoderProfiles#PRESET_PROXY}) and keeps the original for export.
+ *
+ * <p>Proxies are keyed by {@link ExportIndex#fingerprint}, so a clip imported again under a new
+ * path finds its proxy, and cached in the app's cache dir under a disk budget with the least
+ * recently used proxies evicted first. Transcoding runs one job at a time on a lowest-priority
+ * thread and can be cancelled by source path.
+ */
+class ProxyGenerator {
+    private static final String TAG = "ProxyGenerator";
+    private static final String DIR = "proxies";
+    static final long DEFAULT_BUDGET_BYTES = 512L * 1024 * 1024;
+    // Sources this small already play smoothly and get no proxy
+    private static final int MAX_DIRECT_EDGE = 1280;
+    private static final int MAX_DIRECT_FRAME_RATE = 30;
+
+    interface Callback {
+        /** The path to play: the proxy, or the source itself when it needs none. */
+        void onReady(String playbackPath);
+
+        void onCancelled();
+
+        void onError(Exception e);
+    }
+
+    private final Context context;
+    private final File dir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_LOWEST);
+            runnable.run();
+        }, "ProxyGenerator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, AtomicBoolean> jobs = new ConcurrentHashMap<>();
+    private final AnnotationRenderer renderer;
+    private volatile long budgetBytes = DEFAULT_BUDGET_BYTES;
+
+    ProxyGenerator(Context context) {
+        this.context = context.getApplicationContext();
+        this.dir = new File(this.context.getCacheDir(), DIR);
+        this.renderer = new AnnotationRenderer(this.context);
+    }
+
+    /** Takes effect with the next eviction, which follows every new proxy. */
+    void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = Math.max(0, budgetBytes);
+    }
+
+    void createProxy(String sourcePath, Callback callback) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        if (jobs.putIfAbsent(sourcePath, cancelled) != null) {
+            callback.onError(new IllegalStateException("Proxy already being created: " + sourcePath));
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                long startNs = System.nanoTime();
+                try {
+                    String playbackPath = proxyFor(sourcePath, cancelled);
+                    Log.d(TAG, "Proxy for " + sourcePath + " ready in " + (System.nanoTime() - startNs) / 1_000_000
+                            + " ms: " + playbackPath);
+                    mainHandler.post(() -> callback.onReady(playbackPath));
+                } catch (VideoExporter.CancelledException e) {
+                    Log.d(TAG, "Proxy cancelled: " + sourcePath);
+                    mainHandler.post(callback::onCancelled);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error creating proxy for " + sourcePath + ": " + e.getMessage());
+                    mainHandler.post(() -> callback.onError(e));
+                } finally {
+                    jobs.remove(sourcePath);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            jobs.remove(sourcePath);
+            callback.onError(new IOException("Proxy generator shut down"));
+        }
+    }
+
+    boolean cancel(String sourcePath) {
+        AtomicBoolean cancelled = jobs.get(sourcePath);
+        if (cancelled == null) return false;
+        cancelled.set(true);
+        return true;
+    }
+
+    void shutdown() {
+        for (AtomicBoolean cancelled : jobs.values()) {
+            cancelled.set(true);
+        }
+        executor.shutdown();
+        renderer.shutdown();
+    }
+
+    private String proxyFor(String sourcePath, AtomicBoolean cancelled) throws IOException {
+        File source = new File(sourcePath);
+        if (!source.exists()) {
+            throw new IOException("Video not found: " + sourcePath);
+        }
+        if (!needsProxy(sourcePath)) return sourcePath;
+
+        String fingerprint = ExportIndex.fingerprint(source);
+        File proxy = new File(dir, fingerprint.replace(':', '_') + ".mp4");
+        if (proxy.exists()) {
+            // Last use orders the eviction
+            proxy.setLastModified(System.currentTimeMillis());
+            return proxy.getAbsolutePath();
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        File temp = new File(dir, proxy.getName() + ".part");
+        long startNs = System.nanoTime();
+        try {
+            renderer.transcode(sourcePath, temp.getAbsolutePath(), EncoderProfiles.PRESET_PROXY, cancelled);
+            if (!temp.renameTo(proxy)) {
+                throw new IOException("Unable to move proxy to " + proxy);
+            }
+        } finally {
+            temp.delete();
+        }
+        recordTelemetry(source, proxy, (System.nanoTime() - startNs) / 1_000_000);
+        evict(proxy);
+        return proxy.getAbsolutePath();
+    }
+
+    private static boolean needsProxy(String sourcePath) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(sourcePath);
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null || !mime.startsWith("video/")) continue;
+                int longEdge = Math.max(format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT));
+                int frameRate = format.containsKey(MediaFormat.KEY_FRAME_RATE)
+                        ? format.getInteger(MediaFormat.KEY_FRAME_RATE) : 0;
+                return longEdge > MAX_DIRECT_EDGE || frameRate > MAX_DIRECT_FRAME_RATE;
+            }
+            throw new IOException("No video track in " + sourcePath);
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /** Deletes the least recently used proxies until the cache fits the budget; keeps {@code current}. */
+    private void evict(File current) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".mp4"));
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (File file : files) {
+            if (total <= budgetBytes) break;
+            if (file.equals(current)) continue;
+            long length = file.length();
+            if (file.delete()) {
+                Mp4KeyframeIndex.sidecarFile(file).delete();
+                Log.d(TAG, "Evicted proxy " + file.getName());
+                total -= length;
+            }
+        }
+    }
+
+    private void recordTelemetry(File source, File proxy, long durationMs) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("sourceBytes", source.length());
+        record.put("proxyBytes", proxy.length());
+        record.put("durationMs", durationMs);
+        Telemetry.get(context).record("proxy", record);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.analysis_ai;
+
+/**
+ * Where a cut-only range ends, decided sample by sample in the extractor's decode order.
+ *
+ * <p>Video stops at the first sample at or past the cut: everything before it in decode order
+ * decodes on its own, while a B-frame after it may be shown before the cut but references that
+ * frame. The range therefore ends on the last reference frame before the cut, and the B-frames
+ * shown between it and the cut are left out. Audio has no reordering and is kept up to the cut
+ * exactly. Plain Java, like {@link Mp4KeyframeIndex}.
+ */
+final class RangeEnd {
+    /** Write the sample. */
+    static final int WRITE = 0;
+    /** Leave the sample out and read on. */
+    static final int SKIP = 1;
+    /** Every track is past the end; stop reading. */
+    static final int STOP = 2;
+
+    private final long endUs;
+    private boolean videoDone;
+    private boolean audioDone;
+
+    /** @param endUs exclusive end of the range, or 0 to keep everything */
+    RangeEnd(long endUs, boolean withAudio) {
+        this.endUs = endUs;
+        this.audioDone = !withAudio;
+    }
+
+    int next(boolean video, long sampleTimeUs) {
+        if (endUs <= 0) return WRITE;
+        if (video) {
+            videoDone |= sampleTimeUs >= endUs;
+            if (!videoDone) return WRITE;
+        } else {
+            audioDone |= sampleTimeUs >= endUs;
+            if (!audioDone) return WRITE;
+        }
+        return videoDone && audioDone ? STOP : SKIP;
+    }
+}
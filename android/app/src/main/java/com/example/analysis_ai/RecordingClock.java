@@ -0,0 +1,43 @@
+package com.example.analysis_ai;
+
+/**
+ * Shared recording timeline. While paused, nothing is encoded, and every timestamp after a resume
+ * is shifted back by the total paused time so the output plays without gaps. Timestamps are
+ * {@link System#nanoTime()} based, like those of SurfaceTexture frames.
+ */
+class RecordingClock {
+    private long pauseStartNs = -1;
+    private long pausedTotalNs;
+
+    /** Starts a new clip on a running, unpaused timeline. */
+    synchronized void reset() {
+        pauseStartNs = -1;
+        pausedTotalNs = 0;
+    }
+
+    synchronized void pause(long nowNs) {
+        if (pauseStartNs < 0) {
+            pauseStartNs = nowNs;
+        }
+    }
+
+    synchronized void resume(long nowNs) {
+        if (pauseStartNs >= 0) {
+            pausedTotalNs += nowNs - pauseStartNs;
+            pauseStartNs = -1;
+        }
+    }
+
+    synchronized boolean isPaused() {
+        return pauseStartNs >= 0;
+    }
+
+    synchronized long getPausedTotalNs() {
+        return pausedTotalNs;
+    }
+
+    /** Maps a capture timestamp onto the gap-free output timeline. */
+    synchronized long toPresentationNs(long timestampNs) {
+        return timestampNs - pausedTotalNs;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.analysis_ai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of one clip, collected as frames go through the pipeline and reported to
+ * {@link Telemetry} once the clip is finalized. The renderer and the video encoder callbacks
+ * both run on the recording thread, which is the only thread that touches an instance.
+ */
+class RecordingStats {
+    private final String sessionId;
+    private final int clipIndex;
+    private final EncoderProfiles.RecordingProfile profile;
+    private final boolean warmEncoder;
+    private final long requestedNs;
+    private final long projectionOpenedNs;
+    private final long frameIntervalUs;
+    private long firstFrameNs = -1;
+    private long firstPtsUs = -1;
+    private long lastPtsUs = -1;
+    private int framesRendered;
+    private int framesEncoded;
+    private int longFrameGaps;
+    private int maxQueueDepth;
+    private long queueDepthSum;
+    private long stopNs = -1;
+    private long finalizedNs = -1;
+    private final List<Map<String, Object>> adaptations = new ArrayList<>();
+
+    /** @param projectionOpenedNs when the session's projection was requested, or -1 after its first clip */
+    RecordingStats(String sessionId, int clipIndex, EncoderProfiles.RecordingProfile profile, boolean warmEncoder,
+                   long requestedNs, long projectionOpenedNs) {
+        this.sessionId = sessionId;
+        this.clipIndex = clipIndex;
+        this.profile = profile;
+        this.warmEncoder = warmEncoder;
+        this.requestedNs = requestedNs;
+        this.projectionOpenedNs = projectionOpenedNs;
+        this.frameIntervalUs = 1_000_000L / Math.max(1, profile.frameRate);
+    }
+
+    /** A frame was drawn into the encoder input surface. */
+    void onFrameRendered() {
+        framesRendered++;
+    }
+
+    /** An encoded frame came out of the video encoder. */
+    void onFrameEncoded(long presentationTimeUs, long nowNs) {
+        int depth = framesRendered - framesEncoded;
+        maxQueueDepth = Math.max(maxQueueDepth, depth);
+        queueDepthSum += depth;
+        framesEncoded++;
+        if (firstFrameNs < 0) {
+            firstFrameNs = nowNs;
+            firstPtsUs = presentationTimeUs;
+        } else if (presentationTimeUs - lastPtsUs > 2 * frameIntervalUs) {
+            // The display only produces frames on changes, so this is a stutter hint, not a drop
+            longFrameGaps++;
+        }
+        lastPtsUs = presentationTimeUs;
+    }
+
+    /** The bitrate or frame rate was changed while recording; see ScreenRecordService. */
+    void onAdaptation(Map<String, Object> adaptation) {
+        adaptations.add(adaptation);
+    }
+
+    List<Map<String, Object>> getAdaptations() {
+        return adaptations;
+    }
+
+    void onStop(long nowNs) {
+        stopNs = nowNs;
+    }
+
+    void onFinalized(long nowNs) {
+        finalizedNs = nowNs;
+    }
+
+    /** Builds the telemetry record; byte and drop counts come from the clip's {@link MuxerWriter}. */
+    Map<String, Object> toRecord(boolean success, long bytesWritten, int droppedSamples) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("sessionId", sessionId);
+        record.put("clipIndex", clipIndex);
+        record.put("success", success);
+        record.put("mimeType", profile.mimeType);
+        record.put("width", profile.width);
+        record.put("height", profile.height);
+        record.put("bitRate", profile.bitRate);
+        record.put("frameRate", profile.frameRate);
+        record.put("warmEncoder", warmEncoder);
+        if (firstFrameNs >= 0) {
+            record.put("startToFirstFrameMs", (firstFrameNs - requestedNs) / 1_000_000);
+            if (projectionOpenedNs >= 0) {
+                record.put("projectionToFirstFrameMs", (firstFrameNs - projectionOpenedNs) / 1_000_000);
+            }
+        }
+        record.put("framesRendered", framesRendered);
+        record.put("framesEncoded", framesEncoded);
+        // Frames handed to the encoder that never came out, plus samples the muxer had to drop
+        record.put("droppedFrames", Math.max(0, framesRendered - framesEncoded) + droppedSamples);
+        record.put("longFrameGaps", longFrameGaps);
+        record.put("adaptations", adaptations.size());
+        record.put("maxEncoderQueueDepth", maxQueueDepth);
+        record.put("avgEncoderQueueDepth", framesEncoded > 0 ? (double) queueDepthSum / framesEncoded : 0.0);
+        long durationUs = lastPtsUs - firstPtsUs;
+        record.put("durationMs", Math.max(0, durationUs / 1000));
+        record.put("bytesWritten", bytesWritten);
+        record.put("bytesPerSecond", durationUs > 0 ? bytesWritten * 1_000_000L / durationUs : bytesWritten);
+        if (stopNs >= 0 && finalizedNs >= 0) {
+            record.put("stopToFinalizeMs", (finalizedNs - stopNs) / 1_000_000);
+        }
+        return record;
+    }
+}
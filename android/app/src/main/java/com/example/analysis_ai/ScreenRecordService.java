@@ -5,92 +5,255 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Intent;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
-import android.media.MediaRecorder;
+import android.media.MediaFormat;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Surface;
+import android.view.WindowManager;
 
 import androidx.core.app.NotificationCompat;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
-public class ScreenRecordService extends Service {
+/**
+ * Foreground service that owns a recording session: one MediaProjection, one VirtualDisplay, the
+ * crop renderer's EGL context and a pair of encoders that stay configured between clips. Clips
+ * are started and stopped through the {@link SessionBinder} handle, so only the first clip of a
+ * session pays for the capture permission and the pipeline set-up. While no clip is recording
+ * the virtual display has no surface and nothing is composited.
+ */
+public class ScreenRecordService extends Service implements MuxerWriter.Listener {
     private static final String TAG = "ScreenRecordService";
     private MediaProjection mediaProjection;
-    private MediaRecorder mediaRecorder;
     private VirtualDisplay virtualDisplay;
+    private VideoEncoder videoEncoder;
+    private Surface encoderSurface;
+    private AudioEncoder audioEncoder;
+    private CropRenderer cropRenderer;
+    private SnapshotReader snapshotReader;
+    private Rect cropRect;
+    private MuxerWriter muxerWriter;
+    private final RecordingClock clock = new RecordingClock();
+    private final SessionBinder binder = new SessionBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Surface displaySurface;
     private static final int NOTIFICATION_ID = 123;
     private static final String CHANNEL_ID = "screen_record_channel";
-    private int left, top, width, height;
+    /** Clip length planned for when the request gives none; a full match half plus stoppage. */
+    static final long DEFAULT_EXPECTED_DURATION_MS = 50 * 60 * 1000;
+    // A clip that cannot get this much room is refused rather than cut off right away
+    private static final long MIN_CLIP_DURATION_MS = 60 * 1000;
+    private static final long STORAGE_CHECK_INTERVAL_MS = 5000;
+    // Recording time left at which the bitrate is stepped down, and at which the clip is stopped
+    private static final long DOWNGRADE_HEADROOM_SECONDS = 180;
+    private static final long STOP_HEADROOM_SECONDS = 15;
+    // Load levels of PowerMonitor: share of the profile bitrate and the frame rate cap for each
+    private static final float[] LEVEL_BIT_RATE_FACTORS = {1f, 0.7f, 0.5f, 0.35f};
+    private static final int[] LEVEL_FRAME_RATES = {0, 24, 20, 15};
+    private static final long POWER_CHECK_INTERVAL_MS = 10_000;
+    // A level is only stepped back up after the device stayed cooler for this long
+    private static final long STEP_UP_HOLD_MS = 60_000;
+    private ClipRequest clip;
+    private ClipRequest pendingClip;
+    private ClipListener stopListener;
+    private StorageGuard storageGuard;
+    // Result of a clip stopped for lack of space, kept for the next stopClip
+    private ClipResult unclaimedResult;
+    // Main thread only; the first clip can fail before the activity has bound
+    private StatusListener statusListener;
+    private String unreportedStatus;
+    private String unreportedMessage;
+    // Moves the moov of finished clips to the front while the encoders already take the next clip
+    private final ExecutorService fastStarter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "FastStart");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private PowerMonitor powerMonitor;
+    private int loadLevel;
+    private long loadLevelSinceNs;
+    private long stepUpSinceNs = -1;
+    // Bitrate ceiling set by the storage check; the load level never raises the bitrate above it
+    private int storageBitRateCap = Integer.MAX_VALUE;
+    private long clipStartedNs;
+    private Runnable pendingOpen;
+    private int screenWidth, screenHeight;
     private int densityDpi;
     private String outputPath;
+    private Telemetry telemetry;
+    private RecordingStats clipStats;
+    private String sessionId;
+    private long sessionOpenedNs;
+    private int clipCount;
     private HandlerThread handlerThread;
     private Handler handler;
-    private boolean isRecording = false;
+    private volatile boolean sessionOpen = false;
+    private volatile boolean closeRequested = false;
+    private volatile boolean destroyed = false;
+    private volatile boolean isRecording = false;
+    private volatile boolean isFinalizing = false;
+
+    /**
+     * Hears on the main thread when a clip started ("started"), could not start ("refused" for
+     * lack of storage, "error") or was stopped by the service itself ("stopped").
+     */
+    interface StatusListener {
+        void onStatus(String status, String message);
+    }
+
+    /** Receives the result of a clip on the main thread; a null path means nothing was recorded. */
+    interface ClipListener {
+        /** adaptations lists every bitrate or frame rate change made while the clip recorded. */
+        void onClipFinished(String outputPath, List<String> segmentPaths, List<Map<String, Object>> adaptations);
+    }
+
+    /**
+     * Handle to the running session. Calls return immediately and are carried out in order on the
+     * recording thread.
+     */
+    class SessionBinder extends Binder {
+        boolean isOpen() {
+            return sessionOpen && !closeRequested;
+        }
+
+        boolean isRecording() {
+            return isRecording;
+        }
+
+        /** Call on the main thread; a status reported before a listener was set is passed on now. */
+        void setStatusListener(StatusListener listener) {
+            statusListener = listener;
+            if (listener != null && unreportedStatus != null) {
+                listener.onStatus(unreportedStatus, unreportedMessage);
+                unreportedStatus = null;
+                unreportedMessage = null;
+            }
+        }
+
+        /** Starts a clip, or queues it behind a clip that is still being finalized. */
+        void startClip(ClipRequest request) {
+            handler.post(() -> ScreenRecordService.this.startClip(request));
+        }
+
+        /** segmentPaths is only set when the clip was recorded with a segment policy. */
+        void stopClip(ClipListener listener) {
+            handler.post(() -> ScreenRecordService.this.stopClip(listener));
+        }
+
+        void pauseClip() {
+            handler.post(ScreenRecordService.this::pauseClip);
+        }
+
+        /** Writes the latest recorded frame to {@code outputPath} as "jpeg" or "webp", off the UI thread. */
+        void captureSnapshot(String outputPath, String format, int quality, SnapshotReader.Callback callback) {
+            handler.post(() -> ScreenRecordService.this.captureSnapshot(outputPath, format, quality, callback));
+        }
+
+        void resumeClip() {
+            handler.post(ScreenRecordService.this::resumeClip);
+        }
+
+        /** Stops any running clip, releases the projection and lets the service stop. */
+        void close() {
+            closeRequested = true;
+            handler.post(ScreenRecordService.this::closeSession);
+        }
+    }
+
+    private final MediaProjection.Callback projectionCallback = new MediaProjection.Callback() {
+        @Override
+        public void onStop() {
+            Log.d(TAG, "MediaProjection stopped");
+            closeRequested = true;
+            closeSession();
+        }
+    };
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
+        telemetry = Telemetry.get(this);
+        // Keeps the codec list walk off the clip start
+        EncoderProfiles.prefetch(this);
         handlerThread = new HandlerThread("ScreenRecordThread");
         handlerThread.start();
         handler = new Handler(handlerThread.getLooper());
+        powerMonitor = new PowerMonitor(this, handler, () -> {
+            if (!isRecording) return;
+            handler.removeCallbacks(powerCheck);
+            powerCheck.run();
+        });
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         int resultCode = intent.getIntExtra("resultCode", -1);
         Intent data = intent.getParcelableExtra("data");
-        left = intent.getIntExtra("left", 0);
-        top = intent.getIntExtra("top", 0);
-        width = intent.getIntExtra("width", 1080);
-        height = intent.getIntExtra("height", 1920);
+        ClipRequest request = ClipRequest.readFrom(intent);
 
         DisplayMetrics metrics = getResources().getDisplayMetrics();
         densityDpi = metrics.densityDpi;
 
-        startForeground(NOTIFICATION_ID, createNotification());
-        startRecording(resultCode, data);
+        startForeground(NOTIFICATION_ID, createNotification(request != null ? "Recording in progress" : "Ready to record"));
+        // The EGL context used for cropping is bound to the recording thread, so set up there
+        handler.post(() -> {
+            Runnable open = () -> {
+                closeRequested = false;
+                if (openSession(resultCode, data) && request != null) {
+                    startClip(request);
+                }
+            };
+            // A clip of the previous session is still draining into its encoders
+            if (isFinalizing) {
+                pendingOpen = open;
+            } else {
+                open.run();
+            }
+        });
         return START_STICKY;
     }
 
-    private void startRecording(int resultCode, Intent data) {
+    private boolean openSession(int resultCode, Intent data) {
+        if (sessionOpen) {
+            Log.w(TAG, "Replacing open recording session");
+            releaseSession();
+        }
+        sessionOpenedNs = System.nanoTime();
         try {
-            mediaRecorder = new MediaRecorder();
-            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-            mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-            mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-            mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-
-            width = width % 2 == 0 ? width : width + 1;
-            height = height % 2 == 0 ? height : height + 1;
-            mediaRecorder.setVideoSize(width, height);
-            mediaRecorder.setVideoFrameRate(30);
-            mediaRecorder.setVideoEncodingBitRate(5 * 1000 * 1000);
-
-            outputPath = getOutputFile().getAbsolutePath();
-            File outputFile = new File(outputPath);
-            if (!outputFile.getParentFile().exists()) {
-                outputFile.getParentFile().mkdirs();
-            }
-            mediaRecorder.setOutputFile(outputPath);
-
-            Log.d(TAG, "Preparing MediaRecorder with size: " + width + "x" + height + ", output: " + outputPath);
-            mediaRecorder.prepare();
+            DisplayMetrics screenMetrics = new DisplayMetrics();
+            WindowManager windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
+            windowManager.getDefaultDisplay().getRealMetrics(screenMetrics);
+            screenWidth = screenMetrics.widthPixels;
+            screenHeight = screenMetrics.heightPixels;
 
             MediaProjectionManager projectionManager =
                     (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
@@ -98,44 +261,410 @@ public class ScreenRecordService extends Service {
 
             if (mediaProjection == null) {
                 Log.e(TAG, "MediaProjection is null");
+                reportStatus("error", "Screen capture is not available");
+                releaseSession();
                 stopSelf();
-                return;
+                return false;
             }
 
-            MediaProjection.Callback callback = new MediaProjection.Callback() {
-                @Override
-                public void onStop() {
-                    Log.d(TAG, "MediaProjection stopped");
-                    if (isRecording) {
-                        stopRecording();
-                        stopSelf();
-                    }
-                }
-            };
-            mediaProjection.registerCallback(callback, handler);
+            mediaProjection.registerCallback(projectionCallback, handler);
 
+            cropRenderer = new CropRenderer(screenWidth, screenHeight, clock, handler);
+            displaySurface = cropRenderer.start();
+            // No surface until a clip starts, so an idle session composites nothing
             virtualDisplay = mediaProjection.createVirtualDisplay(
                     "ScreenRecorder",
-                    width, height, densityDpi,
+                    screenWidth, screenHeight, densityDpi,
                     DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
-                    mediaRecorder.getSurface(),
+                    null,
                     null, null
             );
 
-            mediaRecorder.start();
-            isRecording = true;
-            Log.d(TAG, "Recording started, output: " + outputPath);
-        } catch (IOException e) {
-            Log.e(TAG, "Error starting recording: " + e.getMessage());
+            sessionOpen = true;
+            sessionId = "session_" + System.currentTimeMillis();
+            clipCount = 0;
+            Map<String, Object> record = new HashMap<>();
+            record.put("sessionId", sessionId);
+            record.put("openMs", (System.nanoTime() - sessionOpenedNs) / 1_000_000);
+            record.put("screenWidth", screenWidth);
+            record.put("screenHeight", screenHeight);
+            telemetry.record("session_open", record);
+            Log.d(TAG, "Recording session opened, screen: " + screenWidth + "x" + screenHeight);
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error opening recording session: " + e.getMessage());
             e.printStackTrace();
+            reportStatus("error", "Unable to open recording session: " + e.getMessage());
+            releaseSession();
             stopSelf();
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "IllegalStateException in MediaRecorder setup: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void startClip(ClipRequest request) {
+        if (!sessionOpen || closeRequested) {
+            Log.e(TAG, "No open recording session");
+            reportStatus("error", "No open recording session");
+            return;
+        }
+        if (isRecording) {
+            Log.w(TAG, "Clip already recording");
+            return;
+        }
+        if (isFinalizing) {
+            // Encoders are still draining the previous clip; start as soon as they are free
+            pendingClip = request;
+            return;
+        }
+        long startNs = System.nanoTime();
+        clip = request;
+        unclaimedResult = null;
+        try {
+            Rect cropRect = getCropRect(request, getResources().getDisplayMetrics().density);
+
+            outputPath = getOutputFile().getAbsolutePath();
+            File outputFile = new File(outputPath);
+            if (!outputFile.getParentFile().exists()) {
+                outputFile.getParentFile().mkdirs();
+            }
+
+            EncoderProfiles profiles = EncoderProfiles.get(this);
+            EncoderProfiles.RecordingProfile profile = profiles.select(request.preset, cropRect.width(), cropRect.height());
+            storageGuard = new StorageGuard(outputFile.getParentFile());
+            long durationMs = request.expectedDurationMs > 0 ? request.expectedDurationMs : DEFAULT_EXPECTED_DURATION_MS;
+            profile = fitToStorage(profiles, profile, cropRect, durationMs);
+            if (profile == null) {
+                Log.e(TAG, "Not enough storage to record, available: " + storageGuard.availableBytes() + " bytes");
+                recordStorageEvent("refused", -1);
+                storageGuard = null;
+                clip = null;
+                updateNotification("Not enough storage to record");
+                reportStatus("refused", "Not enough storage to record");
+                return;
+            }
+            boolean warm = videoEncoder != null && encoderSurface != null && profile.equals(videoEncoder.getProfile());
+            if (warm) {
+                Log.d(TAG, "Reusing warm encoder " + profile);
+            } else {
+                Log.d(TAG, "Preparing encoder with crop: " + cropRect + ", profile: " + profile);
+                prepareVideoEncoder(profiles, profile, request.preset, cropRect);
+            }
+            profile = videoEncoder.getProfile();
+
+            if (audioEncoder == null) {
+                prepareAudioEncoder();
+            }
+
+            storageGuard.holdReserve();
+            // The default duration only plans the preflight; reserving it would tie up room for an
+            // hour-long clip on every short one
+            long preallocation = request.expectedDurationMs > 0
+                    ? preallocationBytes(profile, request.segmentPolicy, durationMs) : 0;
+            muxerWriter = new MuxerWriter(outputPath, audioEncoder != null, request.segmentPolicy,
+                    preallocation, this);
+            // Only the session's first clip waited for the projection
+            clipStats = new RecordingStats(sessionId, clipCount, profile, warm, startNs,
+                    clipCount == 0 ? sessionOpenedNs : -1);
+            clipCount++;
+            clock.reset();
+            clipStartedNs = System.nanoTime();
+            loadLevel = PowerMonitor.LEVEL_NONE;
+            loadLevelSinceNs = clipStartedNs;
+            stepUpSinceNs = -1;
+            storageBitRateCap = Integer.MAX_VALUE;
+            this.cropRect = cropRect;
+            cropRenderer.attachEncoder(encoderSurface, cropRect, profile.width, profile.height, clipStats);
+            videoEncoder.start(muxerWriter, clipStats);
+            if (audioEncoder != null) {
+                audioEncoder.start(muxerWriter);
+            }
+            virtualDisplay.setSurface(displaySurface);
+
+            isRecording = true;
+            handler.postDelayed(storageCheck, STORAGE_CHECK_INTERVAL_MS);
+            // A device that is already hot steps down before the first check interval
+            powerMonitor.start();
+            handler.post(powerCheck);
+            updateNotification("Recording in progress");
+            reportStatus("started", null);
+            Log.d(TAG, "Clip started in " + (System.nanoTime() - startNs) / 1_000_000 + " ms, output: " + outputPath);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error starting clip: " + e.getMessage());
             e.printStackTrace();
-            stopSelf();
+            releaseEncoders();
+            reportStatus("error", "Unable to start recording: " + e.getMessage());
+        }
+    }
+
+    private void reportStatus(String status, String message) {
+        mainHandler.post(() -> {
+            if (statusListener != null) {
+                statusListener.onStatus(status, message);
+            } else {
+                unreportedStatus = status;
+                unreportedMessage = message;
+            }
+        });
+    }
+
+    /**
+     * Steps the preset down until the expected clip fits on the storage. Returns null when not
+     * even {@link #MIN_CLIP_DURATION_MS} of the cheapest preset fits.
+     */
+    private EncoderProfiles.RecordingProfile fitToStorage(EncoderProfiles profiles,
+                                                          EncoderProfiles.RecordingProfile profile,
+                                                          Rect cropRect, long durationMs) {
+        String requested = profile.preset;
+        while (!storageGuard.fits(StorageGuard.estimateBytes(profile.bitRate, AudioEncoder.BIT_RATE, durationMs))) {
+            String lower = EncoderProfiles.lowerPreset(profile.preset);
+            if (lower == null) break;
+            profile = profiles.select(lower, cropRect.width(), cropRect.height());
+        }
+        if (!storageGuard.fits(StorageGuard.estimateBytes(profile.bitRate, AudioEncoder.BIT_RATE, MIN_CLIP_DURATION_MS))) {
+            return null;
+        }
+        if (!profile.preset.equals(requested)) {
+            Log.w(TAG, "Preset " + requested + " does not fit the storage, recording " + profile.preset);
+            recordStorageEvent("preset_downgrade", profile.bitRate);
+        }
+        return profile;
+    }
+
+    /** Bytes to reserve per output file: the expected clip, or one segment of it. */
+    private long preallocationBytes(EncoderProfiles.RecordingProfile profile, MuxerWriter.SegmentPolicy policy,
+                                    long durationMs) {
+        long fileMs = durationMs;
+        if (policy != null && policy.maxDurationUs > 0) {
+            fileMs = Math.min(fileMs, policy.maxDurationUs / 1000);
+        }
+        long bytes = StorageGuard.estimateBytes(profile.bitRate, AudioEncoder.BIT_RATE, fileMs);
+        if (policy != null && policy.maxBytes > 0) {
+            bytes = Math.min(bytes, policy.maxBytes);
+        }
+        // Never reserve more than is free; the clip may still run shorter than expected
+        return Math.min(bytes, storageGuard.availableBytes() - StorageGuard.FINALIZE_RESERVE_BYTES);
+    }
+
+    /**
+     * Watches the room left while recording. The bitrate is halved as the storage runs low, and
+     * the clip is stopped and finalized cleanly before the disk is full.
+     */
+    private final Runnable storageCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (!isRecording || storageGuard == null || muxerWriter == null) return;
+            long headroom = storageGuard.availableBytes() - StorageGuard.FINALIZE_RESERVE_BYTES
+                    + muxerWriter.getPreallocatedRemaining();
+            int bitRate = videoEncoder.getBitRate();
+            long secondsLeft = headroom / Math.max(1, (bitRate + (long) AudioEncoder.BIT_RATE) / 8);
+            if (secondsLeft < STOP_HEADROOM_SECONDS) {
+                Log.w(TAG, "Storage almost full, stopping clip with " + headroom + " bytes left");
+                recordStorageEvent("auto_stop", bitRate);
+                stopClip(stopListener);
+                updateNotification("Recording stopped, storage full");
+                reportStatus("stopped", "Recording stopped, storage full");
+                return;
+            }
+            if (secondsLeft < DOWNGRADE_HEADROOM_SECONDS && bitRate > EncoderProfiles.MIN_BIT_RATE) {
+                int lower = Math.max(EncoderProfiles.MIN_BIT_RATE, bitRate / 2);
+                Log.w(TAG, "Storage running low, " + secondsLeft + " s left, bitrate " + bitRate + " -> " + lower);
+                storageBitRateCap = lower;
+                applyLoadLevel("storage");
+                recordStorageEvent("bitrate_downgrade", lower);
+            }
+            handler.postDelayed(this, STORAGE_CHECK_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * Follows the device's thermal and battery state while recording. A higher load level is
+     * applied at once, since a throttled encoder drops frames at random; a lower one only after
+     * {@link #STEP_UP_HOLD_MS} and one level at a time, so the quality does not flap.
+     */
+    private final Runnable powerCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (!isRecording || videoEncoder == null) return;
+            int thermalLevel = powerMonitor.thermalLevel();
+            int batteryLevel = powerMonitor.batteryLevel();
+            int target = Math.max(thermalLevel, batteryLevel);
+            long nowNs = System.nanoTime();
+            if (target > loadLevel) {
+                stepUpSinceNs = -1;
+                setLoadLevel(target, thermalLevel >= batteryLevel ? "thermal" : "battery", nowNs);
+            } else if (target < loadLevel) {
+                if (stepUpSinceNs < 0) {
+                    stepUpSinceNs = nowNs;
+                } else if ((nowNs - stepUpSinceNs) / 1_000_000 >= STEP_UP_HOLD_MS) {
+                    // The next level up has to wait a full hold again
+                    stepUpSinceNs = nowNs;
+                    setLoadLevel(loadLevel - 1, "recovered", nowNs);
+                }
+            } else {
+                stepUpSinceNs = -1;
+            }
+            handler.postDelayed(this, POWER_CHECK_INTERVAL_MS);
+        }
+    };
+
+    private void setLoadLevel(int level, String reason, long nowNs) {
+        Log.w(TAG, "Load level " + loadLevel + " -> " + level + " (" + reason + "), after "
+                + (nowNs - loadLevelSinceNs) / 1_000_000 + " ms");
+        loadLevel = level;
+        loadLevelSinceNs = nowNs;
+        applyLoadLevel(reason);
+    }
+
+    /**
+     * Sets the encoder bitrate and the renderer frame rate cap for the current load level and
+     * storage ceiling, live on the running session, and records the change with the clip.
+     */
+    private void applyLoadLevel(String reason) {
+        EncoderProfiles.RecordingProfile profile = videoEncoder.getProfile();
+        int bitRate = Math.min(storageBitRateCap, (int) (profile.bitRate * LEVEL_BIT_RATE_FACTORS[loadLevel]));
+        bitRate = Math.max(EncoderProfiles.MIN_BIT_RATE, bitRate);
+        int frameRate = LEVEL_FRAME_RATES[loadLevel] > 0
+                ? Math.min(profile.frameRate, LEVEL_FRAME_RATES[loadLevel]) : profile.frameRate;
+        int previousBitRate = videoEncoder.getBitRate();
+        if (bitRate != previousBitRate) {
+            videoEncoder.setBitRate(bitRate);
+        }
+        cropRenderer.setMaxFrameRate(LEVEL_FRAME_RATES[loadLevel] > 0 ? frameRate : 0);
+
+        Map<String, Object> adaptation = new HashMap<>();
+        adaptation.put("clipMs", (clock.toPresentationNs(System.nanoTime()) - clipStartedNs) / 1_000_000);
+        adaptation.put("reason", reason);
+        adaptation.put("level", loadLevel);
+        adaptation.put("bitRate", videoEncoder.getBitRate());
+        adaptation.put("frameRate", frameRate);
+        adaptation.put("thermalStatus", powerMonitor.thermalStatus());
+        adaptation.put("batteryPercent", powerMonitor.batteryPercent());
+        if (clipStats != null) {
+            clipStats.onAdaptation(adaptation);
+        }
+        Map<String, Object> record = new HashMap<>(adaptation);
+        record.put("sessionId", sessionId);
+        record.put("clipIndex", clipCount - 1);
+        record.put("previousBitRate", previousBitRate);
+        telemetry.record("adaptation", record);
+    }
+
+    private void recordStorageEvent(String action, int bitRate) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("sessionId", sessionId);
+        record.put("clipIndex", isRecording ? clipCount - 1 : clipCount);
+        record.put("action", action);
+        record.put("availableBytes", storageGuard.availableBytes());
+        if (bitRate >= 0) {
+            record.put("bitRate", bitRate);
+        }
+        telemetry.record("storage", record);
+    }
+
+    private void prepareVideoEncoder(EncoderProfiles profiles, EncoderProfiles.RecordingProfile profile,
+                                     String preset, Rect cropRect) throws IOException {
+        releaseVideoEncoder();
+        videoEncoder = new VideoEncoder(profile, handler);
+        try {
+            encoderSurface = videoEncoder.prepare();
+        } catch (IOException e) {
+            videoEncoder = null;
+            if (profile.mimeType.equals(MediaFormat.MIMETYPE_VIDEO_AVC)) throw e;
+            Log.w(TAG, "Falling back to H.264: " + e.getMessage());
+            profile = profiles.fallbackToAvc(preset, cropRect.width(), cropRect.height());
+            videoEncoder = new VideoEncoder(profile, handler);
+            encoderSurface = videoEncoder.prepare();
+        }
+    }
+
+    private void prepareAudioEncoder() {
+        if (audioEncoder == null) {
+            audioEncoder = new AudioEncoder(clock);
+        }
+        try {
+            audioEncoder.prepare();
+        } catch (IOException e) {
+            Log.w(TAG, "Recording without audio: " + e.getMessage());
+            audioEncoder.release();
+            audioEncoder = null;
+        }
+    }
+
+    /** Reconfigures the encoders of the finished clip so the next one starts without set-up. */
+    private void rearmEncoders() {
+        if (videoEncoder != null) {
+            try {
+                encoderSurface = videoEncoder.prepare();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to keep video encoder warm: " + e.getMessage());
+                releaseVideoEncoder();
+            }
+        }
+        if (audioEncoder != null) {
+            audioEncoder.stop();
+            prepareAudioEncoder();
+        }
+    }
+
+    /** Stops compositing and encoding until resumed; the paused time is cut from the output. */
+    private void pauseClip() {
+        if (!isRecording || clock.isPaused()) return;
+        clock.pause(System.nanoTime());
+        virtualDisplay.setSurface(null);
+        Log.d(TAG, "Recording paused");
+    }
+
+    private void resumeClip() {
+        if (!isRecording || !clock.isPaused()) return;
+        clock.resume(System.nanoTime());
+        virtualDisplay.setSurface(displaySurface);
+        Log.d(TAG, "Recording resumed, total paused: " + clock.getPausedTotalNs() / 1_000_000 + " ms");
+    }
+
+    /**
+     * Draws the current frame into the snapshot reader, which is set up on the first snapshot of
+     * a crop size and reused after that. Only a running, unpaused clip has a current frame.
+     */
+    private void captureSnapshot(String outputPath, String format, int quality, SnapshotReader.Callback callback) {
+        if (!isRecording || clock.isPaused() || cropRect == null) {
+            mainHandler.post(() -> callback.onError(new IllegalStateException("No clip recording")));
+            return;
+        }
+        try {
+            if (snapshotReader == null) {
+                snapshotReader = new SnapshotReader(handler);
+            }
+            if (!snapshotReader.isPrepared(cropRect.width(), cropRect.height())) {
+                cropRenderer.detachSnapshotSurface();
+                Surface surface = snapshotReader.prepare(cropRect.width(), cropRect.height());
+                cropRenderer.attachSnapshotSurface(surface, cropRect.width(), cropRect.height());
+            }
+            long timestampNs = System.nanoTime();
+            if (!cropRenderer.drawSnapshot(timestampNs)) {
+                mainHandler.post(() -> callback.onError(new IllegalStateException("No frame recorded yet")));
+                return;
+            }
+            snapshotReader.expect(timestampNs, outputPath, format, quality, callback);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error capturing snapshot: " + e.getMessage());
+            mainHandler.post(() -> callback.onError(e));
         }
     }
 
+    /** Converts the logical-pixel rect sent by Flutter into screen pixels, clamped to the display. */
+    private Rect getCropRect(ClipRequest request, float density) {
+        Rect rect = new Rect(
+                Math.round(request.left * density),
+                Math.round(request.top * density),
+                Math.round((request.left + request.width) * density),
+                Math.round((request.top + request.height) * density));
+        if (!rect.intersect(0, 0, screenWidth, screenHeight) || rect.width() < 2 || rect.height() < 2) {
+            Log.w(TAG, "Crop rect outside of screen, recording full screen");
+            rect.set(0, 0, screenWidth, screenHeight);
+        }
+        return rect;
+    }
+
     private File getOutputFile() {
         File dir = new File(getExternalFilesDir(null), "aiTacticals");
         if (!dir.exists()) {
@@ -147,15 +676,22 @@ public class ScreenRecordService extends Service {
         return outputFile;
     }
 
-    private Notification createNotification() {
+    private Notification createNotification(String text) {
         return new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("Screen Recording")
-                .setContentText("Recording in progress")
+                .setContentText(text)
                 .setSmallIcon(android.R.drawable.ic_media_play)
                 .setPriority(NotificationCompat.PRIORITY_LOW)
                 .build();
     }
 
+    private void updateNotification(String text) {
+        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.notify(NOTIFICATION_ID, createNotification(text));
+        }
+    }
+
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel channel = new NotificationChannel(
@@ -172,61 +708,278 @@ public class ScreenRecordService extends Service {
 
     @Override
     public void onDestroy() {
-        if (isRecording) {
-            stopRecording();
-        }
-        if (handlerThread != null) {
-            handlerThread.quitSafely();
-        }
+        destroyed = true;
+        closeRequested = true;
+        // Files already queued are still rewritten and delivered
+        fastStarter.shutdown();
+        // While finalizing, the thread is still needed to drain the encoder; it quits itself afterwards
+        handler.post(() -> {
+            closeSession();
+            if (!isFinalizing) {
+                handlerThread.quitSafely();
+            }
+        });
         super.onDestroy();
     }
 
-    private void stopRecording() {
+    private void stopClip(ClipListener listener) {
+        pendingClip = null;
         if (!isRecording) {
-            Log.d(TAG, "Recording already stopped");
+            if (isFinalizing && stopListener == null) {
+                // Stopped for lack of space; the result follows once finalized
+                stopListener = listener;
+            } else if (unclaimedResult != null) {
+                unclaimedResult.claim(listener);
+                unclaimedResult = null;
+            } else {
+                Log.d(TAG, "No clip recording");
+                deliver(listener, null, null, null);
+            }
             return;
         }
 
         isRecording = false;
+        isFinalizing = true;
+        stopListener = listener;
+        handler.removeCallbacks(storageCheck);
+        handler.removeCallbacks(powerCheck);
+        powerMonitor.stop();
+        if (clipStats != null) {
+            clipStats.onStop(System.nanoTime());
+        }
+        // Gives the muxer the reserved room to write its moov into
+        if (storageGuard != null) {
+            storageGuard.releaseReserve();
+            storageGuard = null;
+        }
 
-        if (mediaRecorder != null) {
-            try {
-                Log.d(TAG, "Stopping MediaRecorder");
-                mediaRecorder.stop();
-                Log.d(TAG, "MediaRecorder stopped, output: " + outputPath);
-            } catch (IllegalStateException e) {
-                Log.e(TAG, "Error stopping MediaRecorder: " + e.getMessage());
-                e.printStackTrace();
+        virtualDisplay.setSurface(null);
+        Log.d(TAG, "Signalling end of stream to encoders");
+        videoEncoder.signalEndOfStream();
+        cropRenderer.detachEncoder();
+        if (audioEncoder != null) {
+            audioEncoder.signalEndOfStream();
+        }
+        updateNotification("Ready to record");
+    }
+
+    /** Called on the recording thread; the session is released once the last clip is finalized. */
+    private void closeSession() {
+        if (isRecording) {
+            stopClip(stopListener);
+        }
+        if (isFinalizing) return;
+        if (sessionOpen) {
+            Log.d(TAG, "Closing recording session");
+        }
+        releaseSession();
+        if (pendingOpen != null) {
+            Runnable open = pendingOpen;
+            pendingOpen = null;
+            open.run();
+            return;
+        }
+        stopForeground(true);
+        stopSelf();
+    }
+
+    @Override
+    public void onFinished(List<String> outputPaths, boolean success) {
+        handler.post(() -> {
+            List<Map<String, Object>> adaptations = clipStats != null ? clipStats.getAdaptations() : null;
+            if (clipStats != null && muxerWriter != null) {
+                clipStats.onFinalized(System.nanoTime());
+                telemetry.record("clip", clipStats.toRecord(success, muxerWriter.getBytesWritten(),
+                        muxerWriter.getDroppedSamples()));
             }
+            clipStats = null;
+            muxerWriter = null;
+            isFinalizing = false;
+            ClipListener listener = stopListener;
+            stopListener = null;
+
+            String lastPath = outputPaths.isEmpty() ? null : outputPaths.get(outputPaths.size() - 1);
+            boolean segmented = clip.segmentPolicy.isEnabled();
+            if (success && lastPath != null && new File(lastPath).exists()) {
+                Log.d(TAG, "Clip finalized, output: " + outputPaths);
+                deliver(listener, outputPaths.get(0), segmented ? outputPaths : null, adaptations);
+            } else {
+                Log.e(TAG, "Output file not found or invalid: " + lastPath);
+                if (lastPath != null) {
+                    new File(lastPath).delete();
+                }
+                // Earlier segments were finalized on rotation and are still playable
+                List<String> finished = outputPaths.isEmpty() ? outputPaths : outputPaths.subList(0, outputPaths.size() - 1);
+                if (segmented && !finished.isEmpty()) {
+                    deliver(listener, finished.get(0), finished, adaptations);
+                } else {
+                    deliver(listener, null, null, null);
+                }
+            }
+
+            if (closeRequested || pendingOpen != null) {
+                closeSession();
+                if (destroyed) {
+                    handlerThread.quitSafely();
+                }
+                return;
+            }
+            rearmEncoders();
+            if (pendingClip != null) {
+                ClipRequest next = pendingClip;
+                pendingClip = null;
+                startClip(next);
+            }
+        });
+    }
+
+    /**
+     * Hands a clip's result to its listener. The files get their moov moved to the front first,
+     * on {@link #fastStarter}, so the recording thread is free to rearm and start the next clip
+     * while a long clip is rewritten.
+     */
+    private void deliver(ClipListener listener, String path, List<String> segmentPaths,
+                         List<Map<String, Object>> adaptations) {
+        List<Map<String, Object>> changes = adaptations != null
+                ? new ArrayList<>(adaptations) : Collections.emptyList();
+        ClipResult result = new ClipResult(path, segmentPaths, changes);
+        if (listener != null) {
+            result.claim(listener);
+        } else if (path != null) {
+            // Nobody asked yet, as after a stop for lack of space; the next stopClip gets it
+            Log.w(TAG, "No listener for clip result: " + path);
+            unclaimedResult = result;
+        }
+        if (path == null) {
+            result.markReady();
+            return;
         }
+        List<String> files = segmentPaths != null ? segmentPaths : Collections.singletonList(path);
+        try {
+            fastStarter.execute(() -> {
+                for (String file : files) {
+                    fastStart(file);
+                }
+                result.markReady();
+            });
+        } catch (RejectedExecutionException e) {
+            result.markReady();
+        }
+    }
 
-        if (mediaRecorder != null) {
-            try {
-                mediaRecorder.reset();
-                mediaRecorder.release();
-            } catch (IllegalStateException e) {
-                Log.e(TAG, "Error resetting/releasing MediaRecorder: " + e.getMessage());
-            } finally {
-                mediaRecorder = null;
+    /** Moves the moov to the front; on failure the file stays playable as it is. */
+    private static void fastStart(String path) {
+        long startNs = System.nanoTime();
+        try {
+            if (Mp4FastStart.apply(new File(path))) {
+                Log.d(TAG, "Moved moov to the front of " + path + " in "
+                        + (System.nanoTime() - startNs) / 1_000_000 + " ms");
             }
+        } catch (IOException e) {
+            Log.w(TAG, "Leaving moov at the end of " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A clip's result, posted to the main thread once its files are ready and a listener has
+     * claimed it, whichever comes last.
+     */
+    private final class ClipResult {
+        private final String path;
+        private final List<String> segmentPaths;
+        private final List<Map<String, Object>> adaptations;
+        private ClipListener listener;
+        private boolean ready;
+
+        ClipResult(String path, List<String> segmentPaths, List<Map<String, Object>> adaptations) {
+            this.path = path;
+            this.segmentPaths = segmentPaths;
+            this.adaptations = adaptations;
+        }
+
+        synchronized void claim(ClipListener listener) {
+            this.listener = listener;
+            if (ready) post();
         }
 
+        synchronized void markReady() {
+            ready = true;
+            if (listener != null) post();
+        }
+
+        private void post() {
+            ClipListener target = listener;
+            mainHandler.post(() -> target.onClipFinished(path, segmentPaths, adaptations));
+        }
+    }
+
+    private void releaseVideoEncoder() {
+        if (cropRenderer != null) {
+            cropRenderer.detachEncoder();
+        }
+        if (videoEncoder != null) {
+            videoEncoder.release();
+            videoEncoder = null;
+        }
+        encoderSurface = null;
+    }
+
+    /** Drops the clip pipeline after a failed start; the projection stays open. */
+    private void releaseEncoders() {
+        if (virtualDisplay != null) {
+            virtualDisplay.setSurface(null);
+        }
+        releaseVideoEncoder();
+        if (audioEncoder != null) {
+            audioEncoder.release();
+            audioEncoder = null;
+        }
+        if (muxerWriter != null) {
+            muxerWriter.release();
+            muxerWriter = null;
+        }
+        handler.removeCallbacks(storageCheck);
+        handler.removeCallbacks(powerCheck);
+        powerMonitor.stop();
+        if (storageGuard != null) {
+            storageGuard.releaseReserve();
+            storageGuard = null;
+        }
+    }
+
+    private void releaseSession() {
+        if (sessionOpen) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("sessionId", sessionId);
+            record.put("clips", clipCount);
+            record.put("durationMs", (System.nanoTime() - sessionOpenedNs) / 1_000_000);
+            telemetry.record("session_close", record);
+        }
+        sessionOpen = false;
+        isRecording = false;
+        pendingClip = null;
         if (virtualDisplay != null) {
             virtualDisplay.release();
             virtualDisplay = null;
         }
-
+        releaseEncoders();
+        if (snapshotReader != null) {
+            if (cropRenderer != null) {
+                cropRenderer.detachSnapshotSurface();
+            }
+            snapshotReader.release();
+            snapshotReader = null;
+        }
+        cropRect = null;
+        if (cropRenderer != null) {
+            cropRenderer.release();
+            cropRenderer = null;
+            displaySurface = null;
+        }
         if (mediaProjection != null) {
+            mediaProjection.unregisterCallback(projectionCallback);
             mediaProjection.stop();
             mediaProjection = null;
         }
-
-        stopForeground(true);
-
-        if (outputPath != null && new File(outputPath).exists()) {
-            MainActivity.onRecordingStopped(outputPath); // Call static method
-        } else {
-            Log.e(TAG, "Output file not found or invalid: " + outputPath);
-        }
     }
-}
\ No newline at end of file
+}
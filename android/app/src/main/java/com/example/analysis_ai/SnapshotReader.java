@@ -0,0 +1,249 @@
+package com.example.analysis_ai;
+
+import android.graphics.Bitmap;
+import android.graphics.PixelFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Still snapshots of the recorded area while a clip records. {@link CropRenderer} draws the
+ * latest display frame, drawings included, into the surface of an {@link ImageReader}; the
+ * image is copied into a pooled bitmap on the recording thread and encoded to JPEG or WebP on a
+ * background thread, so the editor's UI thread never rasterizes or encodes anything.
+ *
+ * <p>The reader, its pixel buffers and the bitmaps are kept across snapshots and only replaced
+ * when the crop size changes. Everything except the encoding runs on the recording thread.
+ */
+class SnapshotReader implements ImageReader.OnImageAvailableListener {
+    private static final String TAG = "SnapshotReader";
+    private static final int MAX_IMAGES = 2;
+    // Bitmaps kept for reuse; more are only allocated while that many snapshots are still encoding
+    private static final int MAX_POOLED_BITMAPS = 2;
+    // A frame the compositor dropped never reaches the reader; its snapshot fails after this long
+    private static final long SNAPSHOT_TIMEOUT_MS = 2000;
+
+    interface Callback {
+        void onSnapshot(String path);
+
+        void onError(Exception e);
+    }
+
+    private static class Request {
+        final long timestampNs;
+        final String outputPath;
+        final Bitmap.CompressFormat format;
+        final int quality;
+        final Callback callback;
+        Runnable timeout;
+
+        Request(long timestampNs, String outputPath, String format, int quality, Callback callback) {
+            this.timestampNs = timestampNs;
+            this.outputPath = outputPath;
+            this.format = FrameGrabber.compressFormat(format);
+            this.quality = Math.max(1, Math.min(100, quality));
+            this.callback = callback;
+        }
+    }
+
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService encoder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "SnapshotEncoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Drawn but not yet delivered by the reader, in drawing order and so by timestamp
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    // Shared with the encoder thread, which hands bitmaps back once written
+    private final ArrayDeque<Bitmap> pool = new ArrayDeque<>();
+    private ImageReader reader;
+    private ByteBuffer packed;
+    private volatile int width, height;
+
+    /** @param handler the recording thread, which also draws into the reader's surface */
+    SnapshotReader(Handler handler) {
+        this.handler = handler;
+    }
+
+    boolean isPrepared(int width, int height) {
+        return reader != null && this.width == width && this.height == height;
+    }
+
+    /** Sets up the reader for snapshots of the given size; the surface of an earlier size is released. */
+    Surface prepare(int width, int height) {
+        releaseReader();
+        this.width = width;
+        this.height = height;
+        synchronized (pool) {
+            for (Bitmap bitmap : pool) {
+                bitmap.recycle();
+            }
+            pool.clear();
+        }
+        reader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, MAX_IMAGES);
+        reader.setOnImageAvailableListener(this, handler);
+        Log.d(TAG, "Snapshot reader " + width + "x" + height);
+        return reader.getSurface();
+    }
+
+    /**
+     * Called right after a frame stamped with {@code timestampNs} was drawn into the surface;
+     * that frame, and no other, is written to {@code outputPath}.
+     */
+    void expect(long timestampNs, String outputPath, String format, int quality, Callback callback) {
+        Request request = new Request(timestampNs, outputPath, format, quality, callback);
+        request.timeout = () -> {
+            if (!pending.remove(request)) return;
+            Log.w(TAG, "Snapshot timed out: " + request.outputPath);
+            mainHandler.post(() -> request.callback.onError(new IOException("Snapshot timed out")));
+        };
+        pending.add(request);
+        handler.postDelayed(request.timeout, SNAPSHOT_TIMEOUT_MS);
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+        if (imageReader != reader) return;
+        Image image = imageReader.acquireNextImage();
+        if (image == null) return;
+        Request request = take(image.getTimestamp());
+        if (request == null) {
+            // Late image of a snapshot that already timed out
+            image.close();
+            return;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = copy(image);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error reading snapshot: " + e.getMessage());
+            mainHandler.post(() -> request.callback.onError(e));
+            return;
+        } finally {
+            image.close();
+        }
+        try {
+            encoder.execute(() -> write(bitmap, request));
+        } catch (RejectedExecutionException e) {
+            recycle(bitmap);
+            mainHandler.post(() -> request.callback.onError(new IOException("Snapshot reader released")));
+        }
+    }
+
+    /**
+     * Removes the request drawn with {@code timestampNs}, or returns null. Images arrive in drawing
+     * order, so requests drawn before it will never get theirs and fail right away.
+     */
+    private Request take(long timestampNs) {
+        while (!pending.isEmpty() && pending.peek().timestampNs <= timestampNs) {
+            Request request = pending.poll();
+            handler.removeCallbacks(request.timeout);
+            if (request.timestampNs == timestampNs) return request;
+            Log.w(TAG, "Snapshot frame dropped: " + request.outputPath);
+            mainHandler.post(() -> request.callback.onError(new IOException("Snapshot frame dropped")));
+        }
+        return null;
+    }
+
+    /** Fails snapshots still waiting for their image and frees the reader and the pool. */
+    void release() {
+        releaseReader();
+        encoder.shutdown();
+        synchronized (pool) {
+            for (Bitmap bitmap : pool) {
+                bitmap.recycle();
+            }
+            pool.clear();
+        }
+    }
+
+    private Bitmap copy(Image image) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer pixels = plane.getBuffer();
+        int rowBytes = width * 4;
+        if (plane.getRowStride() != rowBytes) {
+            // Rows are padded to the hardware's alignment; the bitmap wants them packed
+            if (packed == null || packed.capacity() != rowBytes * height) {
+                packed = ByteBuffer.allocateDirect(rowBytes * height);
+            }
+            packed.clear();
+            for (int row = 0; row < height; row++) {
+                pixels.limit(row * plane.getRowStride() + rowBytes);
+                pixels.position(row * plane.getRowStride());
+                packed.put(pixels);
+            }
+            packed.flip();
+            pixels = packed;
+        }
+        Bitmap bitmap = obtainBitmap();
+        bitmap.copyPixelsFromBuffer(pixels);
+        return bitmap;
+    }
+
+    private Bitmap obtainBitmap() {
+        synchronized (pool) {
+            Bitmap bitmap = pool.poll();
+            if (bitmap != null) return bitmap;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        // The EGL config has no alpha, so the alpha bytes read back carry nothing
+        bitmap.setHasAlpha(false);
+        return bitmap;
+    }
+
+    private void write(Bitmap bitmap, Request request) {
+        long startNs = System.nanoTime();
+        try (FileOutputStream out = new FileOutputStream(request.outputPath)) {
+            if (!bitmap.compress(request.format, request.quality, out)) {
+                throw new IOException("Unable to encode snapshot");
+            }
+            Log.d(TAG, "Snapshot written in " + (System.nanoTime() - startNs) / 1_000_000 + " ms: " + request.outputPath);
+            mainHandler.post(() -> request.callback.onSnapshot(request.outputPath));
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error writing snapshot: " + e.getMessage());
+            mainHandler.post(() -> request.callback.onError(e));
+        } finally {
+            recycle(bitmap);
+        }
+    }
+
+    private void recycle(Bitmap bitmap) {
+        synchronized (pool) {
+            // Bitmaps of an earlier crop size are not reused
+            if (pool.size() < MAX_POOLED_BITMAPS && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                pool.add(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    private void releaseReader() {
+        for (Request request : pending) {
+            handler.removeCallbacks(request.timeout);
+            mainHandler.post(() -> request.callback.onError(new IOException("Snapshot not taken")));
+        }
+        pending.clear();
+        if (reader != null) {
+            reader.setOnImageAvailableListener(null, null);
+            reader.close();
+            reader = null;
+        }
+        packed = null;
+    }
+}
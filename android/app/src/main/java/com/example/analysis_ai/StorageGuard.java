@@ -0,0 +1,140 @@
+package com.example.analysis_ai;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Disk space checks for recording. Before a clip starts, {@link #fits} compares the estimated
+ * clip size with the usable space; while it records, a small finalize reserve is kept allocated
+ * so the muxer can always write its moov, even after the disk filled up with media data.
+ *
+ * <p>Allocation uses {@code posix_fallocate}, which reserves real blocks up front. Storage that
+ * does not support it (some FUSE mounts) is simply not preallocated; the reserve is written out
+ * there instead, on a background thread so it never holds up the encoders at a clip start.
+ */
+class StorageGuard {
+    private static final String TAG = "StorageGuard";
+    private static final String RESERVE_FILE = ".finalize_reserve";
+    /** Left free for the rest of the system, never planned into a recording. */
+    static final long MIN_FREE_BYTES = 100L * 1024 * 1024;
+    /** Room for the moov and the last samples; roughly an hour of sample tables. */
+    static final long FINALIZE_RESERVE_BYTES = 16L * 1024 * 1024;
+    // MP4 container and sample table overhead on top of the raw bitrate
+    private static final float CONTAINER_OVERHEAD = 1.02f;
+
+    // One at a time, so a reserve released and held again right away is never written twice at once
+    private static final ExecutorService RESERVER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "StorageReserve");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File dir;
+    // Guarded by this; the reserve is allocated on RESERVER and released on the recording thread
+    private boolean reserveWanted;
+    private File reserveFile;
+
+    StorageGuard(File dir) {
+        this.dir = dir;
+    }
+
+    static long estimateBytes(int videoBitRate, int audioBitRate, long durationMs) {
+        return (long) ((videoBitRate + (long) audioBitRate) / 8.0 * durationMs / 1000 * CONTAINER_OVERHEAD);
+    }
+
+    /** Usable bytes for recording, after {@link #MIN_FREE_BYTES}; includes a held reserve. */
+    long availableBytes() {
+        File held;
+        synchronized (this) {
+            held = reserveFile;
+        }
+        long reserved = held != null ? held.length() : 0;
+        return Math.max(0, dir.getUsableSpace() + reserved - MIN_FREE_BYTES);
+    }
+
+    boolean fits(long bytes) {
+        return bytes + FINALIZE_RESERVE_BYTES <= availableBytes();
+    }
+
+    /** Allocates the finalize reserve in the background; a clip records without it meanwhile. */
+    void holdReserve() {
+        synchronized (this) {
+            if (reserveWanted) return;
+            reserveWanted = true;
+        }
+        try {
+            RESERVER.execute(this::allocateReserve);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Unable to hold finalize reserve: " + e.getMessage());
+        }
+    }
+
+    private void allocateReserve() {
+        File file = new File(dir, RESERVE_FILE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (!allocate(raf.getFD(), FINALIZE_RESERVE_BYTES)) {
+                // A sparse file would reserve nothing, so write the blocks out
+                byte[] zeros = new byte[1024 * 1024];
+                for (long written = 0; written < FINALIZE_RESERVE_BYTES && isReserveWanted(); written += zeros.length) {
+                    raf.write(zeros);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to hold finalize reserve: " + e.getMessage());
+            file.delete();
+            return;
+        }
+        synchronized (this) {
+            if (reserveWanted) {
+                reserveFile = file;
+                return;
+            }
+        }
+        // Released while it was being written
+        file.delete();
+    }
+
+    private synchronized boolean isReserveWanted() {
+        return reserveWanted;
+    }
+
+    /** Frees the reserve for the muxer to finalize into; one still being written is dropped when done. */
+    void releaseReserve() {
+        File held;
+        synchronized (this) {
+            reserveWanted = false;
+            held = reserveFile;
+            reserveFile = null;
+        }
+        if (held != null && !held.delete()) {
+            Log.w(TAG, "Unable to delete " + held);
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} of real blocks for an open file, so writes neither fail nor stall on
+     * allocation midway. The file size grows to {@code bytes}; the caller trims the unused tail.
+     */
+    static boolean allocate(FileDescriptor fd, long bytes) {
+        if (bytes <= 0) return false;
+        try {
+            Os.posix_fallocate(fd, 0, bytes);
+            return true;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Preallocation unsupported here: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.analysis_ai;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Strokes packed into parallel primitive arrays, as sent over the strokes channel. Decoding
+ * grows the arrays when needed but never allocates per stroke or per point, so one batch can be
+ * reused for every message.
+ *
+ * <p>Wire format, little-endian:
+ * <pre>
+ * int32 op, int32 strokeCount
+ * per stroke: int64 timestampMs, int32 color (ARGB), int32 type, int32 pointCount
+ * then all points of all strokes as float32 x, y pairs, in stroke order
+ * </pre>
+ * Headers are 4-byte aligned so Dart can write the points through a {@code Float32List} view.
+ * Plain Java, like {@link AnnotationCompositor}.
+ */
+class StrokeBatch {
+    /** Adds the strokes to the ones received before. */
+    static final int OP_APPEND = 0;
+    /** Replaces every stroke received before. */
+    static final int OP_REPLACE = 1;
+
+    static final int HEADER_BYTES = 8;
+    static final int STROKE_HEADER_BYTES = 20;
+
+    private int op;
+    private int count;
+    private long[] timestamps = new long[16];
+    private int[] colors = new int[16];
+    private int[] types = new int[16];
+    // pointStarts[i] is the index of stroke i's first x in points, pointStarts[count] the end
+    private int[] pointStarts = new int[17];
+    private float[] points = new float[256];
+
+    int getOp() {
+        return op;
+    }
+
+    void setOp(int op) {
+        this.op = op;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long getTimestampMs(int stroke) {
+        return timestamps[stroke];
+    }
+
+    int getColor(int stroke) {
+        return colors[stroke];
+    }
+
+    int getType(int stroke) {
+        return types[stroke];
+    }
+
+    int getPointCount(int stroke) {
+        return (pointStarts[stroke + 1] - pointStarts[stroke]) / 2;
+    }
+
+    float getX(int stroke, int point) {
+        return points[pointStarts[stroke] + point * 2];
+    }
+
+    float getY(int stroke, int point) {
+        return points[pointStarts[stroke] + point * 2 + 1];
+    }
+
+    void clear() {
+        count = 0;
+        pointStarts[0] = 0;
+    }
+
+    void add(long timestampMs, int color, int type, float[] strokePoints, int offset, int length) {
+        ensureStrokeCapacity(count + 1);
+        int start = pointStarts[count];
+        ensurePointCapacity(start + length);
+        timestamps[count] = timestampMs;
+        colors[count] = color;
+        types[count] = type;
+        System.arraycopy(strokePoints, offset, points, start, length);
+        pointStarts[count + 1] = start + length;
+        count++;
+    }
+
+    /** Appends every stroke of {@code other}. */
+    void addAll(StrokeBatch other) {
+        ensureStrokeCapacity(count + other.count);
+        ensurePointCapacity(pointStarts[count] + other.pointStarts[other.count]);
+        for (int i = 0; i < other.count; i++) {
+            int start = other.pointStarts[i];
+            add(other.timestamps[i], other.colors[i], other.types[i], other.points, start, other.pointStarts[i + 1] - start);
+        }
+    }
+
+    /** Decodes a message into this batch, replacing its contents. */
+    void readFrom(ByteBuffer message) {
+        ByteBuffer buffer = message.order(ByteOrder.LITTLE_ENDIAN);
+        op = buffer.getInt();
+        int strokeCount = buffer.getInt();
+        if (strokeCount < 0) throw new IllegalArgumentException("Negative stroke count");
+        clear();
+        ensureStrokeCapacity(strokeCount);
+        int totalFloats = 0;
+        for (int i = 0; i < strokeCount; i++) {
+            timestamps[i] = buffer.getLong();
+            colors[i] = buffer.getInt();
+            types[i] = buffer.getInt();
+            int pointCount = buffer.getInt();
+            if (pointCount < 0) throw new IllegalArgumentException("Negative point count");
+            pointStarts[i] = totalFloats;
+            totalFloats += pointCount * 2;
+        }
+        pointStarts[strokeCount] = totalFloats;
+        ensurePointCapacity(totalFloats);
+        // One bulk copy for every point of every stroke
+        buffer.asFloatBuffer().get(points, 0, totalFloats);
+        buffer.position(buffer.position() + totalFloats * 4);
+        count = strokeCount;
+    }
+
+    int encodedSize() {
+        return HEADER_BYTES + count * STROKE_HEADER_BYTES + pointStarts[count] * 4;
+    }
+
+    /** Encodes this batch into a new direct buffer, ready to read. */
+    ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(encodedSize()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(op);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(timestamps[i]);
+            buffer.putInt(colors[i]);
+            buffer.putInt(types[i]);
+            buffer.putInt(getPointCount(i));
+        }
+        buffer.asFloatBuffer().put(points, 0, pointStarts[count]);
+        buffer.position(buffer.position() + pointStarts[count] * 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Copies the strokes into the compositor's model; allocates, so only for rendering. */
+    List<AnnotationCompositor.Stroke> toStrokes(int from, int to) {
+        List<AnnotationCompositor.Stroke> strokes = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            strokes.add(new AnnotationCompositor.Stroke(types[i],
+                    Arrays.copyOfRange(points, pointStarts[i], pointStarts[i + 1]), colors[i]));
+        }
+        return strokes;
+    }
+
+    private void ensureStrokeCapacity(int strokes) {
+        if (strokes <= timestamps.length) return;
+        int capacity = Math.max(strokes, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        types = Arrays.copyOf(types, capacity);
+        pointStarts = Arrays.copyOf(pointStarts, capacity + 1);
+    }
+
+    private void ensurePointCapacity(int floats) {
+        if (floats <= points.length) return;
+        points = Arrays.copyOf(points, Math.max(floats, points.length * 2));
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.analysis_ai;
+
+import io.flutter.plugin.common.MessageCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link MessageCodec} for the strokes channel. Messages arrive on the platform thread one at a
+ * time, so every decode reuses the same {@link StrokeBatch}; a handler that needs the strokes
+ * after returning has to copy them out.
+ */
+class StrokeBatchCodec implements MessageCodec<StrokeBatch> {
+    private final StrokeBatch decoded = new StrokeBatch();
+
+    @Override
+    public ByteBuffer encodeMessage(StrokeBatch batch) {
+        return batch != null ? batch.encode() : null;
+    }
+
+    @Override
+    public StrokeBatch decodeMessage(ByteBuffer message) {
+        if (message == null) return null;
+        decoded.readFrom(message);
+        return decoded;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.analysis_ai;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import io.flutter.plugin.common.EventChannel;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Structured recording and export metrics. Every record is appended as one JSON line to
+ * {@link #LOG_FILE} in the app's files directory and streamed to Dart through the telemetry
+ * {@link EventChannel}. Records carry the device, SDK level and app version so logs pulled from
+ * different devices and releases can be compared directly.
+ *
+ * <p>Writes happen on a single background thread; when the log grows past
+ * {@link #MAX_LOG_BYTES} it is rotated to one {@code .1} backup.
+ */
+class Telemetry implements EventChannel.StreamHandler {
+    private static final String TAG = "Telemetry";
+    static final String LOG_FILE = "telemetry.jsonl";
+    private static final long MAX_LOG_BYTES = 2 * 1024 * 1024;
+
+    private static Telemetry instance;
+    private final File logFile;
+    private final Map<String, Object> device = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "TelemetryWriter"));
+    private EventChannel.EventSink sink;
+
+    private Telemetry(Context context) {
+        logFile = new File(context.getFilesDir(), LOG_FILE);
+        device.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        try {
+            device.put("appVersion", context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).versionName);
+        } catch (PackageManager.NameNotFoundException e) {
+            device.put("appVersion", "unknown");
+        }
+    }
+
+    /** Shared by the recording service, the activity and the exporter, which run in one process. */
+    static synchronized Telemetry get(Context context) {
+        if (instance == null) {
+            instance = new Telemetry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    File getLogFile() {
+        return logFile;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        sink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        sink = null;
+    }
+
+    /** Appends a record of type {@code event}; safe to call from any thread. */
+    void record(String event, Map<String, Object> fields) {
+        Map<String, Object> record = new HashMap<>(fields);
+        record.put("event", event);
+        record.put("timeMs", System.currentTimeMillis());
+        record.putAll(device);
+        Log.d(TAG, event + ": " + fields);
+        writer.execute(() -> append(record));
+        mainHandler.post(() -> {
+            if (sink != null) {
+                sink.success(record);
+            }
+        });
+    }
+
+    private void append(Map<String, Object> record) {
+        if (logFile.length() > MAX_LOG_BYTES) {
+            File backup = new File(logFile.getPath() + ".1");
+            backup.delete();
+            if (!logFile.renameTo(backup)) {
+                Log.w(TAG, "Unable to rotate " + logFile);
+            }
+        }
+        try (Writer out = new FileWriter(logFile, true)) {
+            out.write(new JSONObject(record).toString());
+            out.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write telemetry: " + e.getMessage());
+        }
+    }
+}
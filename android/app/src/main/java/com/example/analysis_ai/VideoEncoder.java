@@ -0,0 +1,170 @@
+package com.example.analysis_ai;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Surface-input video encoder. Output buffers are drained through the asynchronous
+ * {@link MediaCodec.Callback} on the recording handler thread and handed to a {@link MuxerWriter}.
+ *
+ * <p>The codec instance is kept between clips: after a clip {@link #prepare} resets and
+ * reconfigures it, so the next clip skips allocating a hardware encoder.
+ */
+class VideoEncoder {
+    private static final String TAG = "VideoEncoder";
+    private static final int I_FRAME_INTERVAL_SECONDS = 1;
+
+    private final EncoderProfiles.RecordingProfile profile;
+    private final Handler handler;
+    private MediaCodec codec;
+    private Surface inputSurface;
+    private MuxerWriter writer;
+    private RecordingStats stats;
+    private int bitRate;
+
+    VideoEncoder(EncoderProfiles.RecordingProfile profile, Handler handler) {
+        this.profile = profile;
+        this.handler = handler;
+    }
+
+    EncoderProfiles.RecordingProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Configures the codec, reusing the instance of a finished clip, and returns the surface the
+     * renderer has to draw into. The surface of a previous clip is no longer valid afterwards.
+     */
+    Surface prepare() throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(profile.mimeType, profile.width, profile.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, profile.bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, profile.frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+
+        writer = null;
+        stats = null;
+        bitRate = profile.bitRate;
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        if (codec != null) {
+            codec.reset();
+        } else {
+            codec = profile.codecName != null
+                    ? MediaCodec.createByCodecName(profile.codecName)
+                    : MediaCodec.createEncoderByType(profile.mimeType);
+        }
+        try {
+            codec.setCallback(callback, handler);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = codec.createInputSurface();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            release();
+            throw new IOException("Unable to configure " + profile + ": " + e.getMessage(), e);
+        }
+        Log.d(TAG, "Configured encoder " + profile);
+        return inputSurface;
+    }
+
+    void start(MuxerWriter writer) {
+        start(writer, null);
+    }
+
+    /** @param stats receives every encoded frame, or null */
+    void start(MuxerWriter writer, RecordingStats stats) {
+        this.writer = writer;
+        this.stats = stats;
+        codec.start();
+    }
+
+    int getBitRate() {
+        return bitRate;
+    }
+
+    /** Changes the target bitrate of the running encoder without restarting it. */
+    void setBitRate(int bitRate) {
+        if (codec == null) return;
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        try {
+            codec.setParameters(parameters);
+            this.bitRate = bitRate;
+            Log.d(TAG, "Bitrate changed to " + bitRate);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Unable to change bitrate: " + e.getMessage());
+        }
+    }
+
+    /** Asks the encoder to flush; the writer is told once the end-of-stream buffer comes out. */
+    void signalEndOfStream() {
+        if (codec == null) return;
+        try {
+            codec.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error signalling end of stream: " + e.getMessage());
+            if (writer != null) writer.endTrack(MuxerWriter.TRACK_VIDEO);
+        }
+    }
+
+    void release() {
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error stopping video codec: " + e.getMessage());
+            }
+            codec.release();
+            codec = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+    }
+
+    private final MediaCodec.Callback callback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec mc, int index) {
+            // Surface input, nothing to queue
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec mc, int index, @NonNull MediaCodec.BufferInfo info) {
+            ByteBuffer buffer = mc.getOutputBuffer(index);
+            if (buffer != null && writer != null) {
+                writer.writeSample(MuxerWriter.TRACK_VIDEO, buffer, info);
+            }
+            if (stats != null && info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                stats.onFrameEncoded(info.presentationTimeUs, System.nanoTime());
+            }
+            mc.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0 && writer != null) {
+                Log.d(TAG, "Video end of stream");
+                writer.endTrack(MuxerWriter.TRACK_VIDEO);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec mc, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, "Video codec error: " + e.getMessage());
+            if (writer != null) writer.abort();
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec mc, @NonNull MediaFormat format) {
+            if (writer != null) writer.addTrack(MuxerWriter.TRACK_VIDEO, format);
+        }
+    };
+}
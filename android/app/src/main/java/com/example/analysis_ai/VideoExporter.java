@@ -0,0 +1,776 @@
+package com.example.analysis_ai;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import io.flutter.plugin.common.EventChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared export engine behind the gallery_saver and mediastore channels. Copies run on a small
+ * bounded pool instead of the platform thread, report byte progress to Dart through the export
+ * progress {@link EventChannel} and can be cancelled by id while in flight.
+ *
+ * <p>Every byte is written once: scoped-storage rows are filled with {@link FileTransfer} over
+ * the row's file descriptor, and on pre-Q devices the file is moved into the public directory
+ * and only indexed. The final event carries the throughput of whichever path was taken.
+ *
+ * <p>Batches ({@link #exportBatch}) skip clips already exported, matched through
+ * {@link ExportIndex}, create and publish all MediaStore rows with one
+ * {@link ContentResolver#applyBatch} each, and copy at most {@link #MAX_CONCURRENT_EXPORTS}
+ * clips at a time on the same pool.
+ */
+class VideoExporter implements EventChannel.StreamHandler {
+    private static final String TAG = "VideoExporter";
+    private static final int MAX_CONCURRENT_EXPORTS = 2;
+    private static final int MAX_QUEUED_EXPORTS = 16;
+    private static final long PROGRESS_INTERVAL_BYTES = 1024 * 1024;
+    private static final String INDEX_FILE = "export_index.tsv";
+
+    interface Callback {
+        void onSuccess(Uri uri, String savedPath);
+
+        void onCancelled();
+
+        void onError(Exception e);
+    }
+
+    interface BatchCallback {
+        /** One {path, state, uri, error} map per requested path, in request order. */
+        void onFinished(List<Map<String, Object>> results);
+
+        void onError(Exception e);
+    }
+
+    static class CancelledException extends IOException {
+        CancelledException() {
+            super("Export cancelled");
+        }
+    }
+
+    static final String METHOD_RENAME = "rename";
+    static final String METHOD_TRANSFER = "transfer";
+
+    private static class ExportResult {
+        final Uri uri;
+        final String savedPath;
+        final String method;
+        final long bytes;
+        final long durationNanos;
+
+        ExportResult(Uri uri, String savedPath, String method, long bytes, long durationNanos) {
+            this.uri = uri;
+            this.savedPath = savedPath;
+            this.method = method;
+            this.bytes = bytes;
+            this.durationNanos = durationNanos;
+        }
+
+        long bytesPerSecond() {
+            return durationNanos > 0 ? bytes * 1_000_000_000L / durationNanos : bytes;
+        }
+    }
+
+    private static class ExportTask {
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+    }
+
+    private static class BatchItem {
+        final String path;
+        final File file;
+        final String exportId;
+        String fingerprint;
+        BatchItem duplicateOf;
+        Uri uri;
+        File destFile;
+        String state;
+        String error;
+        long bytes;
+
+        BatchItem(String batchId, int index, String path) {
+            this.path = path;
+            this.file = new File(path);
+            this.exportId = batchId + "/" + index;
+        }
+
+        void fail(String state, Exception e) {
+            this.state = state;
+            this.error = e != null ? e.getMessage() : null;
+        }
+
+        boolean isCopied() {
+            return "done".equals(state);
+        }
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, ExportTask> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ThreadPoolExecutor executor;
+    // Batches are coordinated one at a time; their copies run on the export pool
+    private final ExecutorService batchCoordinator = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "VideoExportBatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExportIndex exportIndex;
+    private EventChannel.EventSink progressSink;
+
+    VideoExporter(Context context) {
+        this.context = context.getApplicationContext();
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_EXPORTS, MAX_CONCURRENT_EXPORTS,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_EXPORTS),
+                runnable -> {
+                    Thread thread = new Thread(() -> {
+                        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "VideoExport-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        exportIndex = new ExportIndex(new File(this.context.getFilesDir(), INDEX_FILE));
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        progressSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        progressSink = null;
+    }
+
+    /** Returns an id for Dart to key progress events and cancellation on, or uses the one given. */
+    String newExportId(String requestedId) {
+        return requestedId != null ? requestedId : "export_" + nextId.incrementAndGet();
+    }
+
+    /** Same layout rules as the former GallerySaverPlugin: DCIM or Movies/albumName. */
+    void exportToGallery(String exportId, String filePath, String albumName, boolean toDcim, Callback callback) {
+        submit(exportId, "gallery", callback, task -> saveVideoToGallery(exportId, task, filePath, albumName, toDcim));
+    }
+
+    /** Same layout rules as the former MainActivity handler: Movies/relativePath/fileName. */
+    void exportToMediaStore(String exportId, String sourcePath, String fileName, String relativePath, Callback callback) {
+        submit(exportId, "mediastore", callback, task -> saveVideoToMediaStore(exportId, task, sourcePath, fileName, relativePath));
+    }
+
+    /**
+     * Exports every clip in {@code paths} to the gallery, with the layout rules of
+     * {@link #exportToGallery}. Clips exported before, or repeated in the batch, are reported as
+     * "skipped" with the uri of the earlier export. Cancelling {@code batchId} stops every clip.
+     */
+    void exportBatch(String batchId, List<String> paths, String albumName, boolean toDcim, BatchCallback callback) {
+        ExportTask task = new ExportTask();
+        if (tasks.putIfAbsent(batchId, task) != null) {
+            callback.onError(new IllegalStateException("Export already running: " + batchId));
+            return;
+        }
+        List<BatchItem> items = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            items.add(new BatchItem(batchId, i, paths.get(i)));
+        }
+        try {
+            batchCoordinator.execute(() -> {
+                try {
+                    runBatch(batchId, task, items, albumName, toDcim);
+                    List<Map<String, Object>> results = new ArrayList<>(items.size());
+                    for (BatchItem item : items) {
+                        Map<String, Object> result = new HashMap<>();
+                        result.put("path", item.path);
+                        result.put("state", item.state);
+                        result.put("uri", item.uri != null ? item.uri.toString() : null);
+                        result.put("error", item.error);
+                        results.add(result);
+                    }
+                    mainHandler.post(() -> callback.onFinished(results));
+                } catch (Exception e) {
+                    Log.e(TAG, "Batch export failed: " + batchId + ": " + e.getMessage());
+                    mainHandler.post(() -> callback.onError(e));
+                } finally {
+                    tasks.remove(batchId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            tasks.remove(batchId);
+            callback.onError(new IOException("Exporter shut down"));
+        }
+    }
+
+    /**
+     * Flags the export; a queued one is not removed from its queue but ends as cancelled when it
+     * comes up, so its callback always fires and the id is released.
+     */
+    boolean cancel(String exportId) {
+        ExportTask task = tasks.get(exportId);
+        if (task == null) return false;
+        task.cancelled.set(true);
+        Log.d(TAG, "Cancel requested for " + exportId);
+        return true;
+    }
+
+    void shutdown() {
+        for (String exportId : tasks.keySet()) {
+            cancel(exportId);
+        }
+        executor.shutdown();
+        batchCoordinator.shutdown();
+    }
+
+    private interface Job {
+        ExportResult run(ExportTask task) throws Exception;
+    }
+
+    private void submit(String exportId, String target, Callback callback, Job job) {
+        ExportTask task = new ExportTask();
+        if (tasks.putIfAbsent(exportId, task) != null) {
+            callback.onError(new IllegalStateException("Export already running: " + exportId));
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    // Cancelled while queued; still runs so the caller hears back and the id is freed
+                    if (task.cancelled.get()) {
+                        throw new CancelledException();
+                    }
+                    ExportResult saved = job.run(task);
+                    Log.d(TAG, "Export " + exportId + " done via " + saved.method + ": " + saved.bytes
+                            + " bytes in " + saved.durationNanos / 1_000_000 + " ms ("
+                            + saved.bytesPerSecond() / (1024 * 1024) + " MB/s)");
+                    sendDone(exportId, saved);
+                    recordTelemetry(exportId, target, "done", saved);
+                    mainHandler.post(() -> callback.onSuccess(saved.uri, saved.savedPath));
+                } catch (CancelledException e) {
+                    Log.d(TAG, "Export cancelled: " + exportId);
+                    sendProgress(exportId, "cancelled", -1, -1);
+                    recordTelemetry(exportId, target, "cancelled", null);
+                    mainHandler.post(callback::onCancelled);
+                } catch (Exception e) {
+                    Log.e(TAG, "Export failed: " + exportId + ": " + e.getMessage());
+                    sendProgress(exportId, "error", -1, -1);
+                    recordTelemetry(exportId, target, "error", null);
+                    mainHandler.post(() -> callback.onError(e));
+                } finally {
+                    tasks.remove(exportId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            tasks.remove(exportId);
+            callback.onError(new IOException("Too many exports queued"));
+        }
+    }
+
+    private ExportResult saveVideoToGallery(String exportId, ExportTask task, String filePath, String albumName,
+                                            boolean toDcim) throws Exception {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            throw new IOException("Source file does not exist: " + filePath);
+        }
+
+        ContentValues values = galleryValues(file, albumName, toDcim);
+        ContentResolver resolver = context.getContentResolver();
+        long startNanos = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Uri uri = resolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+            if (uri == null) {
+                throw new IOException("Failed to create Media Store entry");
+            }
+            long bytes = transferToUri(exportId, task, file, uri);
+            publish(uri);
+            return new ExportResult(uri, null, METHOD_TRANSFER, bytes, System.nanoTime() - startNanos);
+        }
+
+        File destFile = new File(publicDirectory(albumName, toDcim), file.getName());
+        long bytes = file.length();
+        String method = moveToPublic(exportId, task, file, destFile);
+        values.put(MediaStore.Video.Media.DATA, destFile.getAbsolutePath());
+
+        Uri uri = resolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            throw new IOException("Failed to create Media Store entry");
+        }
+        return new ExportResult(uri, null, method, bytes, System.nanoTime() - startNanos);
+    }
+
+    /** Row values for the gallery layout; on Q and later the row starts out pending. */
+    private ContentValues galleryValues(File file, String albumName, boolean toDcim) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Video.Media.DISPLAY_NAME, file.getName());
+        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
+        values.put(MediaStore.Video.Media.DATE_ADDED, System.currentTimeMillis() / 1000);
+        values.put(MediaStore.Video.Media.DATE_TAKEN, System.currentTimeMillis());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            String relativePath = toDcim ? Environment.DIRECTORY_DCIM : Environment.DIRECTORY_MOVIES + "/" + albumName;
+            values.put(MediaStore.Video.Media.RELATIVE_PATH, relativePath);
+            values.put(MediaStore.Video.Media.IS_PENDING, 1);
+        }
+        return values;
+    }
+
+    private File publicDirectory(String albumName, boolean toDcim) {
+        String directory = toDcim ? Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM).getPath()
+                : Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES).getPath() + "/" + albumName;
+        File dir = new File(directory);
+        if (!dir.exists()) dir.mkdirs();
+        return dir;
+    }
+
+    /** Pre-Q: moves the file into the public directory and returns how. */
+    private String moveToPublic(String exportId, ExportTask task, File file, File destFile) throws IOException {
+        // Same volume: the move is a metadata update. Otherwise copy once, straight into place.
+        if (file.renameTo(destFile)) return METHOD_RENAME;
+        transferToFile(exportId, task, file, destFile);
+        return METHOD_TRANSFER;
+    }
+
+    private void runBatch(String batchId, ExportTask task, List<BatchItem> items, String albumName,
+                          boolean toDcim) throws Exception {
+        if (task.cancelled.get()) {
+            // Cancelled while queued behind another batch
+            for (BatchItem item : items) {
+                item.fail("cancelled", null);
+            }
+            return;
+        }
+        long startNanos = System.nanoTime();
+        ContentResolver resolver = context.getContentResolver();
+        boolean scoped = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+
+        // Skip clips exported before or repeated earlier in this batch
+        Map<String, BatchItem> firstByFingerprint = new HashMap<>();
+        List<BatchItem> pending = new ArrayList<>();
+        for (BatchItem item : items) {
+            if (!item.file.exists()) {
+                item.fail("error", new IOException("Source file does not exist: " + item.path));
+                continue;
+            }
+            try {
+                item.fingerprint = ExportIndex.fingerprint(item.file);
+            } catch (IOException e) {
+                item.fail("error", e);
+                continue;
+            }
+            BatchItem first = firstByFingerprint.putIfAbsent(item.fingerprint, item);
+            if (first != null) {
+                item.duplicateOf = first;
+                continue;
+            }
+            String exported = exportIndex.get(item.fingerprint);
+            if (exported != null && rowExists(resolver, Uri.parse(exported))) {
+                item.state = "skipped";
+                item.uri = Uri.parse(exported);
+                continue;
+            }
+            if (exported != null) {
+                // Deleted from the gallery since, export again
+                exportIndex.remove(item.fingerprint);
+            }
+            pending.add(item);
+        }
+
+        if (scoped && !pending.isEmpty()) {
+            ArrayList<ContentProviderOperation> inserts = new ArrayList<>(pending.size());
+            for (BatchItem item : pending) {
+                inserts.add(ContentProviderOperation.newInsert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI)
+                        .withValues(galleryValues(item.file, albumName, toDcim))
+                        .build());
+            }
+            // Media Store runs a batch in one transaction: if it throws, no row was inserted. Rows
+            // missing from a result fail in copyBatch.
+            ContentProviderResult[] rows = applyBatch(resolver, inserts);
+            for (int i = 0; i < pending.size() && i < rows.length; i++) {
+                pending.get(i).uri = rows[i] != null ? rows[i].uri : null;
+            }
+        }
+
+        try {
+            copyBatch(task, pending, albumName, toDcim);
+        } catch (InterruptedException | RuntimeException e) {
+            // Nothing will publish the rows inserted above
+            discardRows(resolver, pending);
+            throw e;
+        }
+
+        // Publish the copied rows and drop the failed ones in one transaction
+        ArrayList<ContentProviderOperation> finish = new ArrayList<>();
+        List<BatchItem> inserted = new ArrayList<>();
+        for (BatchItem item : pending) {
+            if (scoped) {
+                if (item.uri == null) continue;
+                finish.add(item.isCopied()
+                        ? ContentProviderOperation.newUpdate(item.uri).withValue(MediaStore.Video.Media.IS_PENDING, 0).build()
+                        : ContentProviderOperation.newDelete(item.uri).build());
+            } else if (item.isCopied()) {
+                ContentValues values = galleryValues(item.file, albumName, toDcim);
+                values.put(MediaStore.Video.Media.DATA, item.destFile.getAbsolutePath());
+                finish.add(ContentProviderOperation.newInsert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI)
+                        .withValues(values).build());
+                inserted.add(item);
+            }
+        }
+        if (!finish.isEmpty()) {
+            try {
+                ContentProviderResult[] rows = applyBatch(resolver, finish);
+                for (int i = 0; i < inserted.size() && i < rows.length; i++) {
+                    BatchItem item = inserted.get(i);
+                    item.uri = rows[i] != null ? rows[i].uri : null;
+                    if (item.uri == null) failUnindexed(item);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Rolled back as a whole, so every row is still pending (Q+) or every moved file is
+                // still unindexed (pre-Q): finish each clip on its own instead
+                Log.w(TAG, "Batch " + batchId + " publish failed, finishing clips one by one: " + e.getMessage());
+                finishEach(resolver, pending, albumName, toDcim);
+            }
+        }
+
+        int exported = 0, skipped = 0, failed = 0;
+        long bytes = 0;
+        for (BatchItem item : items) {
+            if (item.duplicateOf != null) {
+                BatchItem first = item.duplicateOf;
+                item.state = first.isCopied() || "skipped".equals(first.state) ? "skipped" : first.state;
+                item.uri = first.uri;
+                item.error = first.error;
+            }
+            if (item.isCopied()) {
+                if (item.uri != null) exportIndex.put(item.fingerprint, item.uri.toString());
+                exported++;
+                bytes += item.bytes;
+            } else if ("skipped".equals(item.state)) {
+                skipped++;
+            } else {
+                failed++;
+            }
+        }
+        try {
+            exportIndex.save();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save export index: " + e.getMessage());
+        }
+
+        long durationNanos = System.nanoTime() - startNanos;
+        Log.d(TAG, "Batch " + batchId + ": " + exported + " exported, " + skipped + " skipped, " + failed
+                + " failed, " + bytes + " bytes in " + durationNanos / 1_000_000 + " ms");
+        Map<String, Object> record = new HashMap<>();
+        record.put("exportId", batchId);
+        record.put("target", "gallery_batch");
+        record.put("state", task.cancelled.get() ? "cancelled" : "done");
+        record.put("clips", items.size());
+        record.put("exported", exported);
+        record.put("skipped", skipped);
+        record.put("failed", failed);
+        record.put("bytes", bytes);
+        record.put("durationMs", durationNanos / 1_000_000);
+        record.put("bytesPerSecond", durationNanos > 0 ? bytes * 1_000_000_000L / durationNanos : bytes);
+        Telemetry.get(context).record("export", record);
+        Map<String, Object> event = new HashMap<>(record);
+        event.remove("target");
+        event.put("state", "batch_done");
+        postEvent(event);
+    }
+
+    /**
+     * Publishes the copied clips one at a time after the batched publish failed. A row that cannot
+     * be published is deleted and its clip fails; pre-Q, a moved file that cannot be indexed stays
+     * in the public directory and is handed to the media scanner, but its clip still fails since
+     * there is no row to record in the export index.
+     */
+    private void finishEach(ContentResolver resolver, List<BatchItem> pending, String albumName, boolean toDcim) {
+        for (BatchItem item : pending) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                if (item.uri == null) continue;
+                if (item.isCopied()) {
+                    try {
+                        ContentValues values = new ContentValues();
+                        values.put(MediaStore.Video.Media.IS_PENDING, 0);
+                        if (resolver.update(item.uri, values, null, null) > 0) continue;
+                        item.fail("error", new IOException("Media Store entry vanished before publishing"));
+                    } catch (RuntimeException e) {
+                        item.fail("error", e);
+                    }
+                }
+                deleteRow(resolver, item.uri);
+                item.uri = null;
+            } else if (item.isCopied()) {
+                ContentValues values = galleryValues(item.file, albumName, toDcim);
+                values.put(MediaStore.Video.Media.DATA, item.destFile.getAbsolutePath());
+                try {
+                    item.uri = resolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+                } catch (RuntimeException e) {
+                    item.uri = null;
+                }
+                if (item.uri == null) failUnindexed(item);
+            }
+        }
+    }
+
+    /** Pre-Q: the file is in the public directory without a row; the media scanner may still add one. */
+    private void failUnindexed(BatchItem item) {
+        item.fail("error", new IOException("Moved to " + item.destFile + " but not indexed"));
+        MediaScannerConnection.scanFile(context, new String[]{item.destFile.getAbsolutePath()}, null, null);
+    }
+
+    /** Deletes the rows inserted for a batch that will not publish them (Q+; no-op before). */
+    private static void discardRows(ContentResolver resolver, List<BatchItem> pending) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return;
+        for (BatchItem item : pending) {
+            if (item.uri == null) continue;
+            deleteRow(resolver, item.uri);
+            item.uri = null;
+        }
+    }
+
+    private static void deleteRow(ContentResolver resolver, Uri uri) {
+        try {
+            resolver.delete(uri, null, null);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Unable to delete pending Media Store entry " + uri + ": " + e.getMessage());
+        }
+    }
+
+    /** Copies the pending clips, never more than the pool size at once so the pool queue stays free. */
+    private void copyBatch(ExportTask task, List<BatchItem> pending, String albumName, boolean toDcim)
+            throws InterruptedException {
+        File publicDir = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? null : publicDirectory(albumName, toDcim);
+        ExecutorCompletionService<BatchItem> completion = new ExecutorCompletionService<>(executor);
+        int inFlight = 0;
+        for (BatchItem item : pending) {
+            if (inFlight == MAX_CONCURRENT_EXPORTS) {
+                awaitCopy(completion);
+                inFlight--;
+            }
+            if (task.cancelled.get()) {
+                item.fail("cancelled", null);
+                continue;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && item.uri == null) {
+                item.fail("error", new IOException("Failed to create Media Store entry"));
+                continue;
+            }
+            try {
+                completion.submit(() -> copyItem(task, item, publicDir), item);
+                inFlight++;
+            } catch (RejectedExecutionException e) {
+                item.fail("error", new IOException("Too many exports queued"));
+            }
+        }
+        while (inFlight > 0) {
+            awaitCopy(completion);
+            inFlight--;
+        }
+    }
+
+    private void copyItem(ExportTask task, BatchItem item, File publicDir) {
+        try {
+            if (publicDir == null) {
+                item.bytes = copyToUri(item.exportId, task, item.file, item.uri);
+            } else {
+                item.destFile = new File(publicDir, item.file.getName());
+                item.bytes = item.file.length();
+                moveToPublic(item.exportId, task, item.file, item.destFile);
+            }
+            item.state = "done";
+            sendProgress(item.exportId, "done", item.bytes, item.bytes);
+        } catch (CancelledException e) {
+            item.fail("cancelled", e);
+            sendProgress(item.exportId, "cancelled", -1, -1);
+        } catch (Exception e) {
+            Log.e(TAG, "Export failed: " + item.exportId + ": " + e.getMessage());
+            item.fail("error", e);
+            sendProgress(item.exportId, "error", -1, -1);
+        }
+    }
+
+    private static void awaitCopy(ExecutorCompletionService<BatchItem> completion) throws InterruptedException {
+        try {
+            completion.take().get();
+        } catch (ExecutionException e) {
+            // copyItem records its own failures
+            Log.e(TAG, "Unexpected batch copy failure: " + e.getCause());
+        }
+    }
+
+    private static ContentProviderResult[] applyBatch(ContentResolver resolver,
+                                                      ArrayList<ContentProviderOperation> operations) throws IOException {
+        try {
+            return resolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new IOException("Media Store batch failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean rowExists(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri, new String[]{MediaStore.Video.Media._ID}, null, null, null)) {
+            return cursor != null && cursor.moveToFirst();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private ExportResult saveVideoToMediaStore(String exportId, ExportTask task, String sourcePath, String fileName,
+                                               String relativePath) throws Exception {
+        File sourceFile = new File(sourcePath);
+        if (!sourceFile.exists()) {
+            throw new IOException("Source file does not exist: " + sourcePath);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Video.Media.DISPLAY_NAME, fileName);
+        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
+        values.put(MediaStore.Video.Media.RELATIVE_PATH, "Movies/" + relativePath);
+        values.put(MediaStore.Video.Media.IS_PENDING, 1);
+
+        long startNanos = System.nanoTime();
+        Uri uri = context.getContentResolver().insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) throw new IOException("Failed to create Media Store entry");
+
+        long bytes = transferToUri(exportId, task, sourceFile, uri);
+        publish(uri);
+
+        String finalPath = "Movies/" + relativePath + "/" + fileName;
+        Log.d(TAG, "Video saved to Media Store: " + finalPath);
+        return new ExportResult(uri, finalPath, METHOD_TRANSFER, bytes, System.nanoTime() - startNanos);
+    }
+
+    /** Copies the file into the pending row, deleting the row again on failure or cancellation. */
+    private long transferToUri(String exportId, ExportTask task, File source, Uri uri) throws IOException {
+        try {
+            return copyToUri(exportId, task, source, uri);
+        } catch (IOException | RuntimeException e) {
+            context.getContentResolver().delete(uri, null, null);
+            throw e;
+        }
+    }
+
+    private long copyToUri(String exportId, ExportTask task, File source, Uri uri) throws IOException {
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "w")) {
+            if (pfd == null) throw new IOException("Unable to open file descriptor for " + uri);
+            try (FileChannel in = new FileInputStream(source).getChannel();
+                 FileChannel out = new FileOutputStream(pfd.getFileDescriptor()).getChannel()) {
+                return FileTransfer.transfer(in, out, progressListener(exportId, task));
+            }
+        }
+    }
+
+    private long transferToFile(String exportId, ExportTask task, File source, File target) throws IOException {
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            return FileTransfer.transfer(in, out, progressListener(exportId, task));
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    private FileTransfer.Listener progressListener(String exportId, ExportTask task) {
+        long[] lastReported = {0};
+        return (transferred, total) -> {
+            if (task.cancelled.get()) {
+                throw new CancelledException();
+            }
+            if (transferred - lastReported[0] >= PROGRESS_INTERVAL_BYTES || transferred == total) {
+                lastReported[0] = transferred;
+                sendProgress(exportId, "progress", transferred, total);
+            }
+        };
+    }
+
+    private void publish(Uri uri) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Video.Media.IS_PENDING, 0);
+            context.getContentResolver().update(uri, values, null, null);
+        }
+    }
+
+    private void recordTelemetry(String exportId, String target, String state, ExportResult saved) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("exportId", exportId);
+        record.put("target", target);
+        record.put("state", state);
+        if (saved != null) {
+            record.put("method", saved.method);
+            record.put("bytes", saved.bytes);
+            record.put("durationMs", saved.durationNanos / 1_000_000);
+            record.put("bytesPerSecond", saved.bytesPerSecond());
+        }
+        Telemetry.get(context).record("export", record);
+    }
+
+    private void sendDone(String exportId, ExportResult saved) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("exportId", exportId);
+        event.put("state", "done");
+        event.put("method", saved.method);
+        event.put("bytesCopied", saved.bytes);
+        event.put("totalBytes", saved.bytes);
+        event.put("durationMs", saved.durationNanos / 1_000_000);
+        event.put("bytesPerSecond", saved.bytesPerSecond());
+        postEvent(event);
+    }
+
+    private void sendProgress(String exportId, String state, long bytesCopied, long totalBytes) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("exportId", exportId);
+        event.put("state", state);
+        if (bytesCopied >= 0) {
+            event.put("bytesCopied", bytesCopied);
+            event.put("totalBytes", totalBytes);
+        }
+        postEvent(event);
+    }
+
+    private void postEvent(Map<String, Object> event) {
+        mainHandler.post(() -> {
+            if (progressSink != null) {
+                progressSink.success(event);
+            }
+        });
+    }
+}
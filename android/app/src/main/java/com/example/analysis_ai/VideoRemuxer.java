@@ -0,0 +1,365 @@
+package com.example.analysis_ai;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import io.flutter.plugin.common.EventChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cut-only edits without re-encoding: keeps time ranges of one or more videos and writes them
+ * back to back into one file by copying compressed samples from {@link MediaExtractor} to
+ * {@link MediaMuxer}. A stream copy cannot begin on a frame that depends on earlier ones, so each
+ * range starts at the video keyframe at or before its requested start and audio follows from
+ * there. Sources must share the video codec and size, as clips of one recording session do.
+ *
+ * <p>Jobs run one at a time on a background thread, report progress to Dart through the remux
+ * progress {@link EventChannel} and can be cancelled by id. Output is made faststart.
+ */
+class VideoRemuxer implements EventChannel.StreamHandler {
+    private static final String TAG = "VideoRemuxer";
+    private static final int DEFAULT_BUFFER_BYTES = 2 * 1024 * 1024;
+    private static final long DEFAULT_FRAME_DURATION_US = 33_333;
+    private static final long PROGRESS_INTERVAL_US = 1_000_000;
+
+    /** Part of a source to keep; an end of 0 keeps it to the end of the video. */
+    static class Range {
+        final String path;
+        final long startUs;
+        final long endUs;
+
+        Range(String path, long startUs, long endUs) {
+            this.path = path;
+            this.startUs = Math.max(0, startUs);
+            this.endUs = endUs;
+        }
+    }
+
+    interface Callback {
+        void onSuccess(String outputPath);
+
+        void onCancelled();
+
+        void onError(Exception e);
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "VideoRemuxer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, AtomicBoolean> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private EventChannel.EventSink progressSink;
+
+    VideoRemuxer(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        progressSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        progressSink = null;
+    }
+
+    /** Returns an id for Dart to key progress events and cancellation on, or uses the one given. */
+    String newRemuxId(String requestedId) {
+        return requestedId != null ? requestedId : "remux_" + nextId.incrementAndGet();
+    }
+
+    void remux(String remuxId, List<Range> ranges, String outputPath, Callback callback) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        if (jobs.putIfAbsent(remuxId, cancelled) != null) {
+            callback.onError(new IllegalStateException("Remux already running: " + remuxId));
+            return;
+        }
+        try {
+            executor.execute(() -> runJob(remuxId, ranges, outputPath, cancelled, callback));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(remuxId);
+            callback.onError(new IOException("Remuxer shut down"));
+        }
+    }
+
+    private void runJob(String remuxId, List<Range> ranges, String outputPath, AtomicBoolean cancelled,
+                        Callback callback) {
+        long startNs = System.nanoTime();
+        try {
+            long bytes = new Job(remuxId, ranges, outputPath, cancelled).run();
+            long durationMs = (System.nanoTime() - startNs) / 1_000_000;
+            Log.d(TAG, "Remuxed " + ranges.size() + " ranges into " + outputPath + " in " + durationMs + " ms");
+            recordTelemetry(remuxId, "done", ranges.size(), bytes, durationMs);
+            sendEvent(remuxId, "done", 1);
+            mainHandler.post(() -> callback.onSuccess(outputPath));
+        } catch (VideoExporter.CancelledException e) {
+            Log.d(TAG, "Remux cancelled: " + remuxId);
+            new File(outputPath).delete();
+            recordTelemetry(remuxId, "cancelled", ranges.size(), 0, (System.nanoTime() - startNs) / 1_000_000);
+            sendEvent(remuxId, "cancelled", -1);
+            mainHandler.post(callback::onCancelled);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error remuxing " + remuxId + ": " + e.getMessage());
+            new File(outputPath).delete();
+            recordTelemetry(remuxId, "error", ranges.size(), 0, (System.nanoTime() - startNs) / 1_000_000);
+            sendEvent(remuxId, "error", -1);
+            mainHandler.post(() -> callback.onError(e));
+        } finally {
+            jobs.remove(remuxId);
+        }
+    }
+
+    boolean cancel(String remuxId) {
+        AtomicBoolean cancelled = jobs.get(remuxId);
+        if (cancelled == null) return false;
+        cancelled.set(true);
+        return true;
+    }
+
+    void shutdown() {
+        for (AtomicBoolean cancelled : jobs.values()) {
+            cancelled.set(true);
+        }
+        executor.shutdown();
+    }
+
+    /** One remux: the muxer stays open across ranges, each range gets its own extractor. */
+    private class Job {
+        private final String remuxId;
+        private final List<Range> ranges;
+        private final String outputPath;
+        private final AtomicBoolean cancelled;
+        private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        private MediaMuxer muxer;
+        private MediaFormat videoFormat, audioFormat;
+        private int videoTrack = -1, audioTrack = -1;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_BYTES);
+        private long bytes;
+        private long processedUs, totalUs, lastReportedUs;
+
+        Job(String remuxId, List<Range> ranges, String outputPath, AtomicBoolean cancelled) {
+            this.remuxId = remuxId;
+            this.ranges = ranges;
+            this.outputPath = outputPath;
+            this.cancelled = cancelled;
+        }
+
+        long run() throws IOException {
+            if (ranges.isEmpty()) {
+                throw new IOException("Nothing to remux");
+            }
+            List<MediaExtractor> extractors = new ArrayList<>(ranges.size());
+            try {
+                // Opened up front so the total duration is known for progress
+                for (Range range : ranges) {
+                    MediaExtractor extractor = new MediaExtractor();
+                    extractors.add(extractor);
+                    extractor.setDataSource(range.path);
+                    totalUs += Math.max(0, endUs(range, extractor) - range.startUs);
+                }
+                muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                long offsetUs = 0;
+                for (int i = 0; i < ranges.size(); i++) {
+                    offsetUs = copyRange(ranges.get(i), extractors.get(i), offsetUs);
+                    extractors.get(i).release();
+                    extractors.set(i, null);
+                }
+                muxer.stop();
+            } finally {
+                for (MediaExtractor extractor : extractors) {
+                    if (extractor != null) extractor.release();
+                }
+                if (muxer != null) muxer.release();
+            }
+            try {
+                Mp4FastStart.apply(new File(outputPath));
+            } catch (IOException e) {
+                Log.w(TAG, "Leaving moov at the end of " + outputPath + ": " + e.getMessage());
+            }
+            return bytes;
+        }
+
+        /** Appends one range at {@code offsetUs}; returns where the next range starts. */
+        private long copyRange(Range range, MediaExtractor extractor, long offsetUs) throws IOException {
+            int sourceVideo = selectTrack(extractor, "video/");
+            int sourceAudio = selectTrack(extractor, "audio/");
+            if (sourceVideo < 0) {
+                throw new IOException("No video track in " + range.path);
+            }
+            MediaFormat format = extractor.getTrackFormat(sourceVideo);
+            if (videoFormat == null) {
+                addTracks(format, sourceAudio >= 0 ? extractor.getTrackFormat(sourceAudio) : null);
+            } else if (!compatible(videoFormat, format)) {
+                throw new IOException(range.path + " needs re-encoding to join, its video differs");
+            }
+            // An audio track the output does not have is left out
+            boolean withAudio = sourceAudio >= 0 && audioTrack >= 0;
+            if (withAudio && !compatibleAudio(audioFormat, extractor.getTrackFormat(sourceAudio))) {
+                throw new IOException(range.path + " needs re-encoding to join, its audio differs");
+            }
+            reserveBuffer(format);
+            extractor.selectTrack(sourceVideo);
+            if (withAudio) {
+                reserveBuffer(extractor.getTrackFormat(sourceAudio));
+                extractor.selectTrack(sourceAudio);
+            }
+            extractor.seekTo(range.startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            long endUs = endUs(range, extractor);
+            long frameDurationUs = format.containsKey(MediaFormat.KEY_FRAME_RATE)
+                    ? 1_000_000L / Math.max(1, format.getInteger(MediaFormat.KEY_FRAME_RATE))
+                    : DEFAULT_FRAME_DURATION_US;
+
+            long baseUs = -1;
+            long lastOutputUs = offsetUs;
+            RangeEnd end = new RangeEnd(endUs, withAudio);
+            int track;
+            while ((track = extractor.getSampleTrackIndex()) >= 0) {
+                if (cancelled.get()) {
+                    throw new VideoExporter.CancelledException();
+                }
+                long sampleTimeUs = extractor.getSampleTime();
+                boolean video = track == sourceVideo;
+                int action = end.next(video, sampleTimeUs);
+                if (action == RangeEnd.STOP) break;
+                if (action == RangeEnd.SKIP) {
+                    extractor.advance();
+                    continue;
+                }
+                // The range begins at the keyframe; audio from before it would come out early
+                if (baseUs < 0 && video) {
+                    baseUs = sampleTimeUs;
+                }
+                if (baseUs < 0 || sampleTimeUs < baseUs) {
+                    extractor.advance();
+                    continue;
+                }
+                int size = extractor.readSampleData(buffer, 0);
+                if (size > 0) {
+                    long outputUs = offsetUs + sampleTimeUs - baseUs;
+                    int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    info.set(0, size, outputUs, flags);
+                    muxer.writeSampleData(video ? videoTrack : audioTrack, buffer, info);
+                    bytes += size;
+                    lastOutputUs = Math.max(lastOutputUs, outputUs);
+                    reportProgress(Math.max(0, sampleTimeUs - Math.max(baseUs, range.startUs)));
+                }
+                extractor.advance();
+            }
+            processedUs += Math.max(0, endUs - range.startUs);
+            return lastOutputUs + frameDurationUs;
+        }
+
+        private void addTracks(MediaFormat video, MediaFormat audio) {
+            videoFormat = video;
+            videoTrack = muxer.addTrack(video);
+            if (audio != null) {
+                audioFormat = audio;
+                audioTrack = muxer.addTrack(audio);
+            }
+            if (video.containsKey(MediaFormat.KEY_ROTATION)) {
+                muxer.setOrientationHint(video.getInteger(MediaFormat.KEY_ROTATION));
+            }
+            muxer.start();
+        }
+
+        private void reserveBuffer(MediaFormat format) {
+            if (!format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) return;
+            int maxSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+            if (maxSize > buffer.capacity()) {
+                buffer = ByteBuffer.allocateDirect(maxSize);
+            }
+        }
+
+        private void reportProgress(long rangeUs) {
+            long doneUs = processedUs + rangeUs;
+            if (doneUs - lastReportedUs < PROGRESS_INTERVAL_US || totalUs <= 0) return;
+            lastReportedUs = doneUs;
+            sendEvent(remuxId, "progress", Math.min(1, (double) doneUs / totalUs));
+        }
+    }
+
+    private static long endUs(Range range, MediaExtractor extractor) {
+        if (range.endUs > 0) return range.endUs;
+        int track = selectTrack(extractor, "video/");
+        MediaFormat format = track >= 0 ? extractor.getTrackFormat(track) : null;
+        return format != null && format.containsKey(MediaFormat.KEY_DURATION)
+                ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+    }
+
+    /** Codec-specific data must match too, or the joined samples would not decode. */
+    private static boolean compatible(MediaFormat a, MediaFormat b) {
+        return Objects.equals(a.getString(MediaFormat.KEY_MIME), b.getString(MediaFormat.KEY_MIME))
+                && a.getInteger(MediaFormat.KEY_WIDTH) == b.getInteger(MediaFormat.KEY_WIDTH)
+                && a.getInteger(MediaFormat.KEY_HEIGHT) == b.getInteger(MediaFormat.KEY_HEIGHT)
+                && Objects.equals(a.getByteBuffer("csd-0"), b.getByteBuffer("csd-0"));
+    }
+
+    private static boolean compatibleAudio(MediaFormat a, MediaFormat b) {
+        return Objects.equals(a.getString(MediaFormat.KEY_MIME), b.getString(MediaFormat.KEY_MIME))
+                && a.getInteger(MediaFormat.KEY_SAMPLE_RATE) == b.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                && a.getInteger(MediaFormat.KEY_CHANNEL_COUNT) == b.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                && Objects.equals(a.getByteBuffer("csd-0"), b.getByteBuffer("csd-0"));
+    }
+
+    private static int selectTrack(MediaExtractor extractor, String mimePrefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) return i;
+        }
+        return -1;
+    }
+
+    private void recordTelemetry(String remuxId, String state, int ranges, long bytes, long durationMs) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("remuxId", remuxId);
+        record.put("state", state);
+        record.put("ranges", ranges);
+        record.put("bytes", bytes);
+        record.put("durationMs", durationMs);
+        Telemetry.get(context).record("remux", record);
+    }
+
+    /** A progress below 0 leaves it out, as for cancelled and failed jobs. */
+    private void sendEvent(String remuxId, String state, double progress) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("remuxId", remuxId);
+        event.put("state", state);
+        if (progress >= 0) {
+            event.put("progress", progress);
+        }
+        mainHandler.post(() -> {
+            if (progressSink != null) {
+                progressSink.success(event);
+            }
+        });
+    }
+}
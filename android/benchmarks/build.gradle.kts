@@ -0,0 +1,95 @@
+import groovy.json.JsonSlurper
+
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The app classes that do not touch the Android SDK are compiled straight from the app sources,
+// so the benchmarks always measure the shipped code.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/example/analysis_ai/AnnotationCompositor.java",
+                "com/example/analysis_ai/AnnotationTimeline.java",
+                "com/example/analysis_ai/ExportIndex.java",
+                "com/example/analysis_ai/FileTransfer.java",
+                "com/example/analysis_ai/Mp4Boxes.java",
+                "com/example/analysis_ai/Mp4KeyframeIndex.java",
+                "com/example/analysis_ai/RangeEnd.java",
+                "com/example/analysis_ai/StrokeBatch.java",
+            )
+        }
+    }
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(2)
+    iterations.set(3)
+    fork.set(1)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    // e.g. -Pjmh.includes=FileCopy to run one benchmark class
+    (findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+}
+
+val baselineFile = layout.projectDirectory.file("baseline/jmh-baseline.json")
+val resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+
+/** Benchmark name plus its parameters, so each parameter combination is compared on its own. */
+fun benchmarkKey(result: Map<*, *>): String {
+    val params = (result["params"] as Map<*, *>?)?.entries?.sortedBy { it.key.toString() }
+        ?.joinToString(",") { "${it.key}=${it.value}" }
+    return if (params.isNullOrEmpty()) result["benchmark"].toString() else "${result["benchmark"]}[$params]"
+}
+
+fun readResults(file: File): Map<String, Map<*, *>> =
+    (JsonSlurper().parse(file) as List<*>).map { it as Map<*, *> }.associateBy { benchmarkKey(it) }
+
+tasks.register("jmhCompare") {
+    group = "benchmark"
+    description = "Fails if a benchmark is slower than the checked-in baseline by more than -Pjmh.tolerance (default 0.25)."
+    inputs.file(baselineFile)
+    inputs.file(resultsFile)
+    doLast {
+        val tolerance = (findProperty("jmh.tolerance") as String?)?.toDouble() ?: 0.25
+        val baseline = readResults(baselineFile.asFile)
+        val current = readResults(resultsFile.get().asFile)
+        val regressions = mutableListOf<String>()
+        for ((key, result) in current) {
+            val base = baseline[key] ?: continue
+            val score = (result["primaryMetric"] as Map<*, *>)["score"] as Number
+            val baseScore = (base["primaryMetric"] as Map<*, *>)["score"] as Number
+            // Time per operation regresses upwards, throughput downwards
+            val ratio = if (result["mode"] == "thrpt") baseScore.toDouble() / score.toDouble()
+                        else score.toDouble() / baseScore.toDouble()
+            val line = String.format("%-90s %12.3f -> %12.3f (%+.1f%%)", key, baseScore.toDouble(),
+                score.toDouble(), (ratio - 1) * 100)
+            println(line)
+            if (ratio > 1 + tolerance) regressions += line
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("Benchmarks regressed beyond ${tolerance * 100}%:\n" + regressions.joinToString("\n"))
+        }
+    }
+}
+
+tasks.register<Copy>("jmhUpdateBaseline") {
+    group = "benchmark"
+    description = "Replaces the checked-in baseline with the latest results."
+    from(resultsFile)
+    into(baselineFile.asFile.parentFile)
+    rename { baselineFile.asFile.name }
+}
@@ -0,0 +1,16 @@
+// Standalone plain-JVM build, so it runs without the Flutter and Android SDKs:
+//   gradle -p android/benchmarks test jmh jmhCompare
+pluginManagement {
+    repositories {
+        gradlePluginPortal()
+        mavenCentral()
+    }
+}
+
+dependencyResolutionManagement {
+    repositories {
+        mavenCentral()
+    }
+}
+
+rootProject.name = "benchmarks"
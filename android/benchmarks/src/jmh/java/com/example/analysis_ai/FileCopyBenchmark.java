@@ -0,0 +1,102 @@
+package com.example.analysis_ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a clip-sized file the ways the export paths have copied it: the original 1 KB stream
+ * loop of GallerySaverPlugin and MainActivity, a larger stream buffer, a direct-buffer channel
+ * loop and {@link FileTransfer}, which the exporter uses now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class FileCopyBenchmark {
+    @Param({"8", "64"})
+    public int sizeMb;
+
+    private Path dir;
+    private Path source;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+        dir = Fixtures.createTempDir("copy");
+        source = Fixtures.randomFile(dir.resolve("source.mp4"), sizeMb * 1024L * 1024);
+        target = dir.resolve("target.mp4");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws IOException {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long streamCopy1k() throws IOException {
+        return streamCopy(1024);
+    }
+
+    @Benchmark
+    public long streamCopy64k() throws IOException {
+        return streamCopy(64 * 1024);
+    }
+
+    @Benchmark
+    public long directBufferCopy() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        long copied = 0;
+        try (FileChannel in = new FileInputStream(source.toFile()).getChannel();
+             FileChannel out = new FileOutputStream(target.toFile()).getChannel()) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    copied += out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return copied;
+    }
+
+    @Benchmark
+    public long fileTransfer() throws IOException {
+        try (FileChannel in = new FileInputStream(source.toFile()).getChannel();
+             FileChannel out = new FileOutputStream(target.toFile()).getChannel()) {
+            return FileTransfer.transfer(in, out, null);
+        }
+    }
+
+    private long streamCopy(int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long copied = 0;
+        try (InputStream in = new FileInputStream(source.toFile());
+             OutputStream out = new FileOutputStream(target.toFile())) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+                copied += len;
+            }
+        }
+        return copied;
+    }
+}
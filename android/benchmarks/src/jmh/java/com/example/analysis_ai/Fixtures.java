@@ -0,0 +1,159 @@
+package com.example.analysis_ai;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Generated benchmark inputs, so no media files have to be checked in. */
+final class Fixtures {
+    private static final long SEED = 42;
+    private static final int TIMESCALE = 90000;
+
+    private Fixtures() {
+    }
+
+    static Path createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("analysis_ai_" + prefix);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /** Writes {@code size} bytes of incompressible data, like an encoded clip. */
+    static Path randomFile(Path path, long size) throws IOException {
+        Random random = new Random(SEED);
+        byte[] chunk = new byte[1024 * 1024];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(chunk);
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written));
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Writes an MP4 laid out the way MediaMuxer leaves it: ftyp, a {@code mdatBytes} mdat and the
+     * moov at the end, with one video track whose stco has {@code chunkCount} entries pointing
+     * into the mdat. Each chunk holds one 30 fps sample and every 30th sample is a keyframe. The
+     * mdat payload is sparse; only box structure and sample tables are meaningful.
+     */
+    static Path mp4File(Path path, long mdatBytes, int chunkCount) throws IOException {
+        ByteBuffer ftyp = box("ftyp", ByteBuffer.wrap(new byte[]{'i', 's', 'o', 'm', 0, 0, 2, 0,
+                'i', 's', 'o', 'm', 'm', 'p', '4', '1'}));
+        long mdatStart = ftyp.remaining();
+        ByteBuffer stco = ByteBuffer.allocate(8 + chunkCount * 4);
+        stco.putInt(0).putInt(chunkCount);
+        long chunkBytes = Math.max(1, (mdatBytes - 8) / chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            stco.putInt((int) (mdatStart + 8 + i * chunkBytes));
+        }
+        stco.flip();
+        ByteBuffer stts = ByteBuffer.allocate(16);
+        stts.putInt(0).putInt(1).putInt(chunkCount).putInt(TIMESCALE / 30);
+        stts.flip();
+        int keyframes = (chunkCount + 29) / 30;
+        ByteBuffer stss = ByteBuffer.allocate(8 + keyframes * 4);
+        stss.putInt(0).putInt(keyframes);
+        for (int i = 0; i < keyframes; i++) {
+            stss.putInt(i * 30 + 1);
+        }
+        stss.flip();
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.putInt(12, TIMESCALE);
+        ByteBuffer hdlr = ByteBuffer.allocate(25);
+        hdlr.putInt(8, Mp4Boxes.fourCc("vide"));
+        ByteBuffer stbl = container("stbl", box("stsd", ByteBuffer.allocate(8)), box("stts", stts),
+                box("stss", stss), box("stco", stco));
+        ByteBuffer trak = container("trak", box("tkhd", ByteBuffer.allocate(84)),
+                container("mdia", box("mdhd", mdhd), box("hdlr", hdlr),
+                        container("minf", box("vmhd", ByteBuffer.allocate(12)), stbl)));
+        ByteBuffer moov = container("moov", box("mvhd", ByteBuffer.allocate(100)), trak);
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            channel.write(ftyp);
+            ByteBuffer mdatHeader = ByteBuffer.allocate(8).putInt((int) mdatBytes).put(type("mdat"));
+            mdatHeader.flip();
+            channel.write(mdatHeader);
+            long moovStart = mdatStart + mdatBytes;
+            file.setLength(moovStart);
+            channel.write(moov, moovStart);
+        }
+        return path;
+    }
+
+    /**
+     * Strokes as the map-based method channel delivers them ({timestampMs, type, points, color}
+     * with boxed doubles) and the same strokes as a {@link StrokeBatch}.
+     */
+    static List<Map<String, Object>> drawings(int strokeCount, int pointsPerStroke, StrokeBatch batch) {
+        Random random = new Random(SEED);
+        List<Map<String, Object>> drawings = new ArrayList<>(strokeCount);
+        float[] points = new float[pointsPerStroke * 2];
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+            List<Double> pointList = new ArrayList<>(points.length);
+            for (int i = 0; i < points.length; i++) {
+                points[i] = random.nextFloat() * 1000;
+                pointList.add((double) points[i]);
+            }
+            long timestampMs = stroke / 4 * 1000L;
+            Map<String, Object> drawing = new HashMap<>();
+            drawing.put("timestampMs", timestampMs);
+            drawing.put("type", "free");
+            drawing.put("points", pointList);
+            drawing.put("color", 0xFFFF0000L);
+            drawings.add(drawing);
+            batch.add(timestampMs, 0xFFFF0000, AnnotationCompositor.TYPE_FREE, points, 0, points.length);
+        }
+        return drawings;
+    }
+
+    private static byte[] type(String type) {
+        return type.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer box(String type, ByteBuffer payload) {
+        ByteBuffer box = ByteBuffer.allocate(8 + payload.remaining());
+        box.putInt(box.capacity()).put(type(type)).put(payload);
+        box.flip();
+        return box;
+    }
+
+    private static ByteBuffer container(String type, ByteBuffer... children) {
+        int size = 0;
+        for (ByteBuffer child : children) {
+            size += child.remaining();
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        for (ByteBuffer child : children) {
+            payload.put(child);
+        }
+        payload.flip();
+        return box(type, payload);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.analysis_ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The strokes channel codec against the map-based drawings path. StandardMessageCodec itself
+ * needs the Flutter embedding, so the map side starts from already-decoded maps and measures
+ * turning them into a timeline; the StrokeCodecBenchmark instrumentation test covers the wire decode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"50"})
+    public int strokes;
+
+    @Param({"200"})
+    public int pointsPerStroke;
+
+    private List<Map<String, Object>> drawings;
+    private StrokeBatch batch;
+    private ByteBuffer encoded;
+    private final StrokeBatch decoded = new StrokeBatch();
+
+    @Setup(Level.Trial)
+    public void createFixture() {
+        batch = new StrokeBatch();
+        drawings = Fixtures.drawings(strokes, pointsPerStroke, batch);
+        encoded = batch.encode();
+    }
+
+    @Benchmark
+    public ByteBuffer binaryEncode() {
+        return batch.encode();
+    }
+
+    @Benchmark
+    public StrokeBatch binaryDecode() {
+        decoded.readFrom(encoded.duplicate());
+        return decoded;
+    }
+
+    @Benchmark
+    public AnnotationTimeline binaryToTimeline() {
+        decoded.readFrom(encoded.duplicate());
+        return AnnotationTimeline.fromStrokes(0, 0, null, decoded);
+    }
+
+    @Benchmark
+    public AnnotationTimeline mapsToTimeline() {
+        return AnnotationTimeline.fromArguments(0, 0, null, drawings);
+    }
+}
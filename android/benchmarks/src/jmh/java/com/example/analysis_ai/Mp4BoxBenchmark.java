@@ -0,0 +1,152 @@
+package com.example.analysis_ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Box-level MP4 work on a MediaMuxer-shaped file (moov after a large mdat): finding the moov
+ * with positional header reads or through a mapping, walking it down to the chunk offset table,
+ * shifting every chunk offset as moving the moov to the front requires, and building the
+ * keyframe index from the sample tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class Mp4BoxBenchmark {
+    private static final int MOOV = Mp4Boxes.fourCc("moov");
+    private static final int STCO = Mp4Boxes.fourCc("stco");
+    private static final int[] CONTAINERS = {MOOV, Mp4Boxes.fourCc("trak"), Mp4Boxes.fourCc("mdia"),
+            Mp4Boxes.fourCc("minf"), Mp4Boxes.fourCc("stbl")};
+
+    @Param({"1000", "30000"})
+    public int chunkCount;
+
+    private Path dir;
+    private File file;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private ByteBuffer moov;
+    private ByteBuffer rewritten;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws IOException {
+        dir = Fixtures.createTempDir("mp4");
+        Path path = Fixtures.mp4File(dir.resolve("clip.mp4"), 256L * 1024 * 1024, chunkCount);
+        file = path.toFile();
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        long[] moovBox = Mp4Boxes.findBox(channel, MOOV);
+        moov = ByteBuffer.allocate((int) moovBox[1]);
+        channel.read(moov, moovBox[0]);
+        moov.flip();
+        rewritten = ByteBuffer.allocate(moov.capacity());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws IOException {
+        channel.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long findMoovPositionalReads() throws IOException {
+        return Mp4Boxes.findBox(channel, MOOV)[0];
+    }
+
+    /** Walks a mapping made once in set-up; mapping per call would exhaust the process's map count. */
+    @Benchmark
+    public long findMoovMapped() {
+        long size = mapped.limit();
+        int position = 0;
+        while (position + 8 <= size) {
+            long boxSize = mapped.getInt(position) & 0xFFFFFFFFL;
+            int type = mapped.getInt(position + 4);
+            if (boxSize == 1) boxSize = mapped.getLong(position + 8);
+            if (type == MOOV) return position;
+            if (boxSize < 8) break;
+            position += boxSize;
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public long sumChunkOffsets() {
+        ByteBuffer stco = findStco(moov.duplicate());
+        int entries = stco.getInt(stco.position() + 4);
+        long sum = 0;
+        for (int i = 0; i < entries; i++) {
+            sum += stco.getInt(stco.position() + 8 + i * 4) & 0xFFFFFFFFL;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public ByteBuffer shiftChunkOffsets() {
+        rewritten.clear();
+        rewritten.put(moov.duplicate());
+        rewritten.flip();
+        ByteBuffer stco = findStco(rewritten.duplicate());
+        int entries = stco.getInt(stco.position() + 4);
+        int shift = moov.remaining();
+        for (int i = 0; i < entries; i++) {
+            int index = stco.position() + 8 + i * 4;
+            stco.putInt(index, stco.getInt(index) + shift);
+        }
+        return rewritten;
+    }
+
+    /** Maps the moov and reads keyframe times, as a sidecar miss does. */
+    @Benchmark
+    public long[] keyframeIndex() throws IOException {
+        return Mp4KeyframeIndex.parse(file).getTimesMs();
+    }
+
+    /** Returns a view positioned at the stco payload (version/flags), found depth-first. */
+    private static ByteBuffer findStco(ByteBuffer box) {
+        int end = box.limit();
+        int position = box.position();
+        while (position + 8 <= end) {
+            int size = box.getInt(position);
+            int type = box.getInt(position + 4);
+            if (type == STCO) {
+                ByteBuffer payload = box.duplicate();
+                payload.position(position + 8);
+                return payload;
+            }
+            if (isContainer(type)) {
+                ByteBuffer child = box.duplicate();
+                child.position(position + 8).limit(position + size);
+                ByteBuffer found = findStco(child);
+                if (found != null) return found;
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    private static boolean isContainer(int type) {
+        for (int container : CONTAINERS) {
+            if (container == type) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.analysis_ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AnnotationTimelineTest {
+    private static AnnotationTimeline.Hold hold(long positionMs, long durationMs) {
+        return new AnnotationTimeline.Hold(positionMs * 1000, durationMs * 1000, Collections.emptyList());
+    }
+
+    @Test
+    public void takeHoldReturnsEachHoldOnceAtTheFirstFrameAtOrAfterIt() {
+        AnnotationTimeline.Hold first = hold(1000, 500);
+        AnnotationTimeline.Hold second = hold(2000, 250);
+        AnnotationTimeline timeline = new AnnotationTimeline(0, 0, Arrays.asList(second, first));
+
+        assertNull(timeline.takeHold(966_000));
+        assertSame(first, timeline.takeHold(1_033_000));
+        assertNull(timeline.takeHold(1_066_000));
+        assertSame(second, timeline.takeHold(3_000_000));
+        assertNull(timeline.takeHold(4_000_000));
+    }
+
+    @Test
+    public void frameOutputUsCountsOnlyTakenHolds() {
+        AnnotationTimeline timeline = new AnnotationTimeline(500_000, 0,
+                Arrays.asList(hold(1000, 500), hold(2000, 250)));
+
+        // The held frame's time is taken before the hold moves the frames after it
+        assertEquals(500_000, timeline.frameOutputUs(1_000_000));
+        assertNotNull(timeline.takeHold(1_000_000));
+        assertEquals(1_500_000, timeline.frameOutputUs(1_500_000));
+        assertEquals(2_000_000, timeline.frameOutputUs(2_000_000));
+        assertNotNull(timeline.takeHold(2_000_000));
+        assertEquals(2_250_000, timeline.frameOutputUs(2_000_000));
+    }
+
+    @Test
+    public void toOutputUsCountsEveryHoldAtOrBeforeTheSample() {
+        AnnotationTimeline timeline = new AnnotationTimeline(500_000, 0,
+                Arrays.asList(hold(1000, 500), hold(2000, 250)));
+
+        assertEquals(0, timeline.toOutputUs(500_000));
+        assertEquals(499_999, timeline.toOutputUs(999_999));
+        assertEquals(1_000_000, timeline.toOutputUs(1_000_000));
+        assertEquals(2_250_000, timeline.toOutputUs(2_000_000));
+    }
+
+    @Test
+    public void holdsOutsideTheRangeAreIgnored() {
+        AnnotationTimeline timeline = new AnnotationTimeline(1_000_000, 2_000_000,
+                Arrays.asList(hold(500, 100), hold(1500, 200), hold(2000, 300)));
+
+        assertEquals(1_000_000, timeline.toOutputUs(1_800_000));
+        assertNotNull(timeline.takeHold(1_500_000));
+        assertNull(timeline.takeHold(2_500_000));
+        assertEquals(true, timeline.isPastEnd(2_000_000));
+    }
+
+    @Test
+    public void onlyHoldsWithDrawingsNeedAnOverlay() {
+        assertFalse(new AnnotationTimeline(0, 0, Collections.emptyList()).hasStrokes());
+        assertFalse(new AnnotationTimeline(0, 0, Arrays.asList(hold(1000, 500))).hasStrokes());
+
+        AnnotationTimeline.Hold drawn = new AnnotationTimeline.Hold(2_000_000, 500_000, Collections.singletonList(
+                new AnnotationCompositor.Stroke(AnnotationCompositor.TYPE_FREE, new float[]{0, 0, 1, 1}, 0xFFFFFFFF)));
+        assertTrue(new AnnotationTimeline(0, 0, Arrays.asList(hold(1000, 500), drawn)).hasStrokes());
+        // Drawings outside the range are never shown
+        assertFalse(new AnnotationTimeline(0, 1_000_000, Arrays.asList(drawn)).hasStrokes());
+    }
+
+    @Test
+    public void drawingsWithoutAPauseGetTheDefaultHold() {
+        Map<String, Object> pause = new HashMap<>();
+        pause.put("positionMs", 1000);
+        pause.put("durationMs", 400);
+        StrokeBatch strokes = new StrokeBatch();
+        strokes.add(1000, 0xFFFF0000, AnnotationCompositor.TYPE_FREE, new float[]{0, 0, 1, 1}, 0, 4);
+        strokes.add(3000, 0xFF00FF00, AnnotationCompositor.TYPE_CIRCLE, new float[]{2, 2, 3, 3}, 0, 4);
+        List<Map<String, Object>> pauses = Collections.singletonList(pause);
+
+        AnnotationTimeline timeline = AnnotationTimeline.fromStrokes(0, 0, pauses, strokes);
+
+        AnnotationTimeline.Hold paused = timeline.takeHold(1_000_000);
+        assertEquals(400_000, paused.durationUs);
+        assertEquals(1, paused.strokes.size());
+        AnnotationTimeline.Hold drawn = timeline.takeHold(3_000_000);
+        assertEquals(AnnotationTimeline.DEFAULT_HOLD_MS * 1000, drawn.durationUs);
+        assertEquals(AnnotationCompositor.TYPE_CIRCLE, drawn.strokes.get(0).type);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.analysis_ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    public void clipsSharingBothEndsDiffer() throws IOException {
+        // Same size and the same 2 MB at either end, as two recordings of a static scene can be
+        byte[] first = new byte[6 * 1024 * 1024];
+        byte[] second = first.clone();
+        second[first.length / 2] = 1;
+
+        assertNotEquals(ExportIndex.fingerprint(write("a.mp4", first)),
+                ExportIndex.fingerprint(write("b.mp4", second)));
+    }
+
+    @Test
+    public void sameContentUnderAnotherPathMatches() throws IOException {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+
+        assertEquals(ExportIndex.fingerprint(write("a.mp4", content)),
+                ExportIndex.fingerprint(write("b.mp4", content)));
+    }
+
+    @Test
+    public void emptyFileHasAFingerprint() throws IOException {
+        assertEquals("0:e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                ExportIndex.fingerprint(write("empty.mp4", new byte[0])));
+    }
+
+    @Test
+    public void savedEntriesAreReadBack() throws IOException {
+        File file = new File(folder.getRoot(), "index.tsv");
+        ExportIndex index = new ExportIndex(file);
+        index.put("1:ab", "content://media/external/video/media/1");
+        index.save();
+
+        assertEquals("content://media/external/video/media/1", new ExportIndex(file).get("1:ab"));
+    }
+}
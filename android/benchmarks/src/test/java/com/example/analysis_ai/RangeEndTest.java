@@ -0,0 +1,122 @@
+package com.example.analysis_ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class RangeEndTest {
+    private static final long FRAME_US = 33_333;
+    private static final long AUDIO_FRAME_US = 21_333;
+
+    /** A sample in decode order; {@code refs} are the frames (by display index) it predicts from. */
+    private static class Sample {
+        final boolean video;
+        final long timeUs;
+        final int frame;
+        final int[] refs;
+
+        Sample(boolean video, long timeUs, int frame, int... refs) {
+            this.video = video;
+            this.timeUs = timeUs;
+            this.frame = frame;
+            this.refs = refs;
+        }
+    }
+
+    /**
+     * I0 P3 B1 B2 P6 B4 B5 P9 B7 B8 in decode order, each B predicting from the P-frames around
+     * it, with audio interleaved the way a muxer writes it.
+     */
+    private static List<Sample> ibbpFixture() {
+        int[][] gop = {{0}, {3, 0}, {1, 0, 3}, {2, 0, 3}, {6, 3}, {4, 3, 6}, {5, 3, 6}, {9, 6}, {7, 6, 9}, {8, 6, 9}};
+        List<Sample> samples = new ArrayList<>();
+        long audioUs = 0;
+        for (int i = 0; i < gop.length; i++) {
+            int[] frame = gop[i];
+            samples.add(new Sample(true, frame[0] * FRAME_US, frame[0], Arrays.copyOfRange(frame, 1, frame.length)));
+            while (audioUs < (i + 1) * FRAME_US) {
+                samples.add(new Sample(false, audioUs, -1));
+                audioUs += AUDIO_FRAME_US;
+            }
+        }
+        return samples;
+    }
+
+    private static List<Sample> cut(List<Sample> samples, long endUs, boolean withAudio) {
+        RangeEnd end = new RangeEnd(endUs, withAudio);
+        List<Sample> written = new ArrayList<>();
+        for (Sample sample : samples) {
+            if (!withAudio && !sample.video) continue;
+            int action = end.next(sample.video, sample.timeUs);
+            if (action == RangeEnd.STOP) break;
+            if (action == RangeEnd.WRITE) written.add(sample);
+        }
+        return written;
+    }
+
+    private static Set<Integer> frames(List<Sample> written) {
+        Set<Integer> frames = new HashSet<>();
+        for (Sample sample : written) {
+            if (sample.video) frames.add(sample.frame);
+        }
+        return frames;
+    }
+
+    @Test
+    public void everyWrittenFrameHasItsReferences() {
+        List<Sample> samples = ibbpFixture();
+        for (long endUs = FRAME_US; endUs <= 10 * FRAME_US; endUs += FRAME_US / 3) {
+            List<Sample> written = cut(samples, endUs, true);
+            Set<Integer> frames = frames(written);
+            for (Sample sample : written) {
+                assertTrue(sample.timeUs < endUs);
+                for (int ref : sample.refs) {
+                    assertTrue("frame " + sample.frame + " without " + ref + " at end " + endUs, frames.contains(ref));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void videoEndsOnTheLastReferenceFrameBeforeTheCut() {
+        // Frames 4 and 5 are shown before the cut but predict from frame 6, which is past it
+        Set<Integer> frames = frames(cut(ibbpFixture(), 5 * FRAME_US + 1, true));
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3)), frames);
+    }
+
+    @Test
+    public void audioIsKeptUpToTheCut() {
+        long endUs = 5 * FRAME_US;
+        long lastAudioUs = -1;
+        for (Sample sample : cut(ibbpFixture(), endUs, true)) {
+            if (!sample.video) lastAudioUs = sample.timeUs;
+        }
+        assertEquals((endUs - 1) / AUDIO_FRAME_US * AUDIO_FRAME_US, lastAudioUs);
+    }
+
+    @Test
+    public void stopsOnceEveryTrackIsPastTheEnd() {
+        RangeEnd end = new RangeEnd(100, true);
+        assertEquals(RangeEnd.WRITE, end.next(true, 50));
+        assertEquals(RangeEnd.SKIP, end.next(true, 100));
+        assertEquals(RangeEnd.SKIP, end.next(true, 60));
+        assertEquals(RangeEnd.WRITE, end.next(false, 99));
+        assertEquals(RangeEnd.STOP, end.next(false, 100));
+
+        RangeEnd videoOnly = new RangeEnd(100, false);
+        assertEquals(RangeEnd.STOP, videoOnly.next(true, 100));
+    }
+
+    @Test
+    public void noEndKeepsEverything() {
+        List<Sample> samples = ibbpFixture();
+        assertEquals(samples.size(), cut(samples, 0, true).size());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.analysis_ai;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class StrokeBatchTest {
+    @Test
+    public void encodeThenReadFromRoundTrips() {
+        StrokeBatch batch = new StrokeBatch();
+        batch.setOp(StrokeBatch.OP_REPLACE);
+        // More strokes and points than the initial capacity, so decoding has to grow
+        for (int i = 0; i < 40; i++) {
+            float[] points = new float[(i % 5 + 1) * 2];
+            for (int p = 0; p < points.length; p++) {
+                points[p] = i + p * 0.25f;
+            }
+            batch.add(1_000L * i, 0xFF000000 | i, i % 4, points, 0, points.length);
+        }
+
+        ByteBuffer message = batch.encode();
+        assertEquals(batch.encodedSize(), message.remaining());
+        StrokeBatch decoded = new StrokeBatch();
+        decoded.readFrom(message);
+
+        assertFalse(message.hasRemaining());
+        assertEquals(StrokeBatch.OP_REPLACE, decoded.getOp());
+        assertEquals(batch.size(), decoded.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(batch.getTimestampMs(i), decoded.getTimestampMs(i));
+            assertEquals(batch.getColor(i), decoded.getColor(i));
+            assertEquals(batch.getType(i), decoded.getType(i));
+            assertEquals(batch.getPointCount(i), decoded.getPointCount(i));
+            for (int p = 0; p < batch.getPointCount(i); p++) {
+                assertEquals(batch.getX(i, p), decoded.getX(i, p), 0);
+                assertEquals(batch.getY(i, p), decoded.getY(i, p), 0);
+            }
+        }
+    }
+
+    @Test
+    public void readFromReplacesEarlierContents() {
+        StrokeBatch first = new StrokeBatch();
+        first.add(1, 2, 3, new float[]{1, 2, 3, 4}, 0, 4);
+        first.add(5, 6, 7, new float[]{5, 6}, 0, 2);
+        StrokeBatch second = new StrokeBatch();
+        second.setOp(StrokeBatch.OP_APPEND);
+        second.add(9, 10, 11, new float[]{0, 1, 2, 3, 4, 5}, 2, 4);
+
+        StrokeBatch decoded = new StrokeBatch();
+        decoded.readFrom(first.encode());
+        decoded.readFrom(second.encode());
+
+        assertEquals(1, decoded.size());
+        assertEquals(9, decoded.getTimestampMs(0));
+        assertArrayEquals(new float[]{2, 3, 4, 5}, decoded.toStrokes(0, 1).get(0).points, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeStrokeCountIsRejected() {
+        ByteBuffer message = ByteBuffer.allocate(StrokeBatch.HEADER_BYTES)
+                .order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        message.putInt(StrokeBatch.OP_APPEND).putInt(-1).flip();
+        new StrokeBatch().readFrom(message);
+    }
+}
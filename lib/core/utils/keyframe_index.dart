@@ -0,0 +1,53 @@
+// core/utils/keyframe_index.dart
+import 'dart:typed_data';
+
+import 'package:flutter/services.dart';
+
+/// Keyframe times of a video, read natively from the MP4's sample tables and cached in a sidecar
+/// next to the file. Seeking to a keyframe is instant because the player does not have to decode
+/// forward from an earlier one; frames at these times also make cheap scrub strip thumbnails.
+class KeyframeIndex {
+  static const MethodChannel _channel = MethodChannel('com.example.analysis_ai/frame_grabber');
+
+  /// Ascending keyframe times in milliseconds.
+  final Int64List timesMs;
+
+  KeyframeIndex(this.timesMs);
+
+  static Future<KeyframeIndex?> load(String path) async {
+    try {
+      final times = await _channel.invokeMethod<Int64List>('getKeyframes', {'path': path});
+      return times == null || times.isEmpty ? null : KeyframeIndex(times);
+    } catch (e) {
+      print('Error loading keyframe index: $e');
+      return null;
+    }
+  }
+
+  /// The last keyframe at or before [timeMs], or the first keyframe.
+  int floor(int timeMs) {
+    final i = _lowerBound(timeMs);
+    if (i < timesMs.length && timesMs[i] == timeMs) return timeMs;
+    return timesMs[i > 0 ? i - 1 : 0];
+  }
+
+  /// The first keyframe at or after [timeMs], or the last keyframe.
+  int ceiling(int timeMs) {
+    final i = _lowerBound(timeMs);
+    return timesMs[i < timesMs.length ? i : timesMs.length - 1];
+  }
+
+  int _lowerBound(int timeMs) {
+    var low = 0;
+    var high = timesMs.length;
+    while (low < high) {
+      final mid = (low + high) >> 1;
+      if (timesMs[mid] < timeMs) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
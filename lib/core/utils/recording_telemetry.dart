@@ -0,0 +1,16 @@
+// core/utils/recording_telemetry.dart
+import 'package:flutter/services.dart';
+
+/// Recording and export metrics reported by the Android side. Each record has an `event`
+/// (`session_open`, `clip`, `session_close` or `export`), a `timeMs` and the device, SDK and app
+/// version; the same records are appended to a JSONL file on the device.
+class RecordingTelemetry {
+  static const EventChannel _channel = EventChannel('com.example.analysis_ai/telemetry');
+  static const MethodChannel _platform = MethodChannel('com.example.analysis_ai/platform');
+
+  static Stream<Map<String, dynamic>> get records =>
+      _channel.receiveBroadcastStream().map((record) => Map<String, dynamic>.from(record as Map));
+
+  /// Path of the JSONL log, one record per line.
+  static Future<String?> logPath() => _platform.invokeMethod<String>('getTelemetryLogPath');
+}
@@ -0,0 +1,64 @@
+// core/utils/stroke_batch_codec.dart
+import 'dart:typed_data';
+import 'dart:ui';
+
+import '../../features/games/presentation layer/cubit/lineup drawing cubut/drawing__state.dart';
+
+/// Adds the strokes to the ones sent before.
+const int kStrokeOpAppend = 0;
+
+/// Replaces every stroke sent before.
+const int kStrokeOpReplace = 1;
+
+const int _headerBytes = 8;
+const int _strokeHeaderBytes = 20;
+
+/// Stroke type ids on the wire, matching AnnotationCompositor on the Android side.
+int? _wireType(DrawingMode mode) {
+  switch (mode) {
+    case DrawingMode.free:
+      return 0;
+    case DrawingMode.circle:
+      return 1;
+    case DrawingMode.arrow:
+      return 2;
+    case DrawingMode.player:
+      return 3;
+    default:
+      return null;
+  }
+}
+
+/// Packs drawings for the strokes channel. Little-endian: int32 op, int32 stroke count, per
+/// stroke int64 timestampMs, int32 color, int32 type, int32 point count, then every point of
+/// every stroke as float32 x, y pairs. Drawings with no wire type are skipped.
+ByteData encodeStrokeBatch(int op, Iterable<MapEntry<int, DrawingItem>> drawings) {
+  final strokes = drawings.where((entry) => _wireType(entry.value.type) != null).toList();
+  var pointCount = 0;
+  for (final stroke in strokes) {
+    pointCount += stroke.value.points.length;
+  }
+  final pointsOffset = _headerBytes + strokes.length * _strokeHeaderBytes;
+  final bytes = Uint8List(pointsOffset + pointCount * 8);
+  final data = ByteData.sublistView(bytes);
+  data.setInt32(0, op, Endian.little);
+  data.setInt32(4, strokes.length, Endian.little);
+  // Headers are 4-byte aligned, so the points can go through a typed view; that view is in host
+  // order, which is little-endian on every Android ABI
+  final points = Float32List.view(bytes.buffer, pointsOffset, pointCount * 2);
+  var offset = _headerBytes;
+  var index = 0;
+  for (final stroke in strokes) {
+    final drawing = stroke.value;
+    data.setInt64(offset, stroke.key, Endian.little);
+    data.setUint32(offset + 8, drawing.color.value, Endian.little);
+    data.setInt32(offset + 12, _wireType(drawing.type)!, Endian.little);
+    data.setInt32(offset + 16, drawing.points.length, Endian.little);
+    offset += _strokeHeaderBytes;
+    for (final Offset point in drawing.points) {
+      points[index++] = point.dx;
+      points[index++] = point.dy;
+    }
+  }
+  return data;
+}
@@ -0,0 +1,57 @@
+// core/utils/video_remuxer.dart
+import 'package:flutter/services.dart';
+
+/// Part of a video to keep; an [endMs] of 0 keeps it to the end.
+class RemuxRange {
+  final String path;
+  final int startMs;
+  final int endMs;
+
+  const RemuxRange(this.path, {this.startMs = 0, this.endMs = 0});
+
+  Map<String, dynamic> toMap() => {'path': path, 'startMs': startMs, 'endMs': endMs};
+}
+
+/// Cut-only trims and joins done natively by copying compressed samples, without re-encoding.
+/// Ranges start at the keyframe at or before their start, so cuts may keep up to one keyframe
+/// interval more than asked. Joined videos must share codec and size, like clips of one session.
+class VideoRemuxer {
+  static const MethodChannel _channel = MethodChannel('com.example.analysis_ai/recording');
+  static const EventChannel _progressChannel = EventChannel('com.example.analysis_ai/remux_progress');
+
+  /// Events with a `remuxId`, a `state` (`progress`, `done`, `cancelled` or `error`) and, for
+  /// progress and done, a `progress` between 0 and 1.
+  static Stream<Map<String, dynamic>> get progress =>
+      _progressChannel.receiveBroadcastStream().map((event) => Map<String, dynamic>.from(event as Map));
+
+  /// Writes [ranges] back to back and returns the output path.
+  static Future<String?> remux(List<RemuxRange> ranges, {String? outputPath, String? remuxId}) {
+    return _channel.invokeMethod<String>('remuxVideo', {
+      'inputs': ranges.map((range) => range.toMap()).toList(),
+      if (outputPath != null) 'outputPath': outputPath,
+      if (remuxId != null) 'remuxId': remuxId,
+    });
+  }
+
+  static Future<String?> trim(String path, int startMs, int endMs, {String? remuxId}) =>
+      remux([RemuxRange(path, startMs: startMs, endMs: endMs)], remuxId: remuxId);
+
+  static Future<String?> concat(List<String> paths, {String? remuxId}) =>
+      remux(paths.map((path) => RemuxRange(path)).toList(), remuxId: remuxId);
+
+  /// Removes the [cuts] (start and end in ms, sorted, not overlapping) from a video of
+  /// [durationMs].
+  static Future<String?> cutOut(String path, int durationMs, List<(int, int)> cuts, {String? remuxId}) {
+    final ranges = <RemuxRange>[];
+    var keepFrom = 0;
+    for (final (start, end) in cuts) {
+      if (start > keepFrom) ranges.add(RemuxRange(path, startMs: keepFrom, endMs: start));
+      keepFrom = end;
+    }
+    if (keepFrom < durationMs) ranges.add(RemuxRange(path, startMs: keepFrom));
+    return remux(ranges, remuxId: remuxId);
+  }
+
+  static Future<bool?> cancel(String remuxId) =>
+      _channel.invokeMethod<bool>('cancelRemux', {'remuxId': remuxId});
+}
@@ -1,3 +1,4 @@
+import 'dart:async';
 import 'dart:io';
 import 'dart:ui' as ui;
 import 'package:flutter/material.dart';
@@ -8,8 +9,9 @@ import 'package:image_picker/image_picker.dart';
 import 'package:path_provider/path_provider.dart';
 import 'package:permission_handler/permission_handler.dart';
 import 'package:video_player/video_player.dart';
-import 'package:video_thumbnail/video_thumbnail.dart';
 import '../../../../../core/utils/custom_snack_bar.dart';
+import '../../../../../core/utils/keyframe_index.dart';
+import '../../../../../core/utils/stroke_batch_codec.dart';
 import '../lineup drawing cubut/drawing__cubit.dart';
 import '../lineup drawing cubut/drawing__state.dart';
 import 'video_editing_state.dart';
@@ -18,8 +20,22 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
   final ImagePicker _picker = ImagePicker();
   static const MethodChannel _channel = MethodChannel('com.example.analysis_ai/recording');
   static const MethodChannel _gallerySaverChannel = MethodChannel('com.example.analysis_ai/gallery_saver');
+  static const MethodChannel _frameGrabberChannel = MethodChannel('com.example.analysis_ai/frame_grabber');
+  static const EventChannel _exportProgressChannel = EventChannel('com.example.analysis_ai/export_progress');
+  static const EventChannel _recordingStatusChannel = EventChannel('com.example.analysis_ai/recording_status');
+  static const BasicMessageChannel<ByteData> _strokesChannel =
+      BasicMessageChannel<ByteData>('com.example.analysis_ai/strokes', BinaryCodec());
   int? _lastTimestamp;
   bool _isStopping = false;
+  // startScreenRecording returns before the clip starts; a refusal or failure arrives here
+  StreamSubscription? _recordingStatusSubscription;
+  // Seeks snap to keyframes once loaded; a snap further than this from the target is skipped
+  KeyframeIndex? _keyframes;
+  static const int _maxSnapMs = 3000;
+  // The player shows the proxy instead of the original
+  bool _playingProxy = false;
+  // Between startRecording switching back to the original and the clip starting
+  bool _startingRecording = false;
 
   VideoEditingCubit() : super(VideoEditingState());
 
@@ -53,6 +69,11 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
       await controller.initialize();
       controller.addListener(updateControllerState);
       controller.play();
+      _playingProxy = false;
+      _keyframes = null;
+      KeyframeIndex.load(persistentPath).then((index) {
+        if (state.originalVideoPath == persistentPath) _keyframes = index;
+      });
 
       emit(state.copyWith(
         controller: controller,
@@ -61,12 +82,75 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
         isPickerActive: false,
         lines: [],
       ));
+      _switchToProxy(persistentPath);
     } catch (e) {
       emit(state.copyWith(isPickerActive: false));
       print('Error picking video: $e');
     }
   }
 
+  /// Plays a low-resolution proxy of large footage once it is ready; the original stays the
+  /// source for frame grabs and export. Not while recording, where the view itself is captured,
+  /// see [_switchToOriginal].
+  Future<void> _switchToProxy(String originalPath) async {
+    final String? proxyPath;
+    try {
+      proxyPath = await _channel.invokeMethod<String>('createProxy', {'path': originalPath});
+    } catch (e) {
+      print('Error creating proxy: $e');
+      return;
+    }
+    final current = state.controller;
+    if (proxyPath == null || proxyPath == originalPath || current == null) return;
+    if (state.originalVideoPath != originalPath || state.isRecording || _startingRecording) return;
+
+    final proxy = VideoPlayerController.file(File(proxyPath));
+    try {
+      await proxy.initialize();
+    } catch (e) {
+      print('Error opening proxy: $e');
+      proxy.dispose();
+      return;
+    }
+    if (state.controller != current || state.isRecording || _startingRecording) {
+      proxy.dispose();
+      return;
+    }
+    await _swapController(current, proxy, proxyPath);
+    _playingProxy = true;
+  }
+
+  /// Goes back to the original before a recording, which captures the player on screen: the
+  /// recorded clip is the final export and must not show the proxy.
+  Future<void> _switchToOriginal() async {
+    final current = state.controller;
+    final originalPath = state.originalVideoPath;
+    if (!_playingProxy || current == null || originalPath == null) return;
+    final original = VideoPlayerController.file(File(originalPath));
+    try {
+      await original.initialize();
+    } catch (e) {
+      original.dispose();
+      rethrow;
+    }
+    await _swapController(current, original, originalPath);
+    _playingProxy = false;
+  }
+
+  /// Replaces [current] with the initialized [next] at the same position and play state.
+  Future<void> _swapController(VideoPlayerController current, VideoPlayerController next, String path) async {
+    await next.seekTo(current.value.position);
+    current.removeListener(updateControllerState);
+    next.addListener(updateControllerState);
+    if (current.value.isPlaying) next.play();
+    emit(state.copyWith(controller: next));
+    current.dispose();
+    _keyframes = null;
+    KeyframeIndex.load(path).then((index) {
+      if (state.controller == next) _keyframes = index;
+    });
+  }
+
   void togglePlayPause(BuildContext context, {GlobalKey? videoKey}) async {
     final controller = state.controller;
     if (controller == null) return;
@@ -81,6 +165,9 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
       } else {
         imagePath = await _saveCurrentFrame(currentTime.inMilliseconds);
       }
+      if (state.isRecording) {
+        await _setNativeRecordingPaused(true);
+      }
       if (imagePath != null) {
         emit(state.copyWith(
           pauseStartTime: currentTime,
@@ -99,24 +186,34 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
           pauseStartTime: null,
         ));
       }
+      if (state.isRecording) {
+        await _setNativeRecordingPaused(false);
+      }
       controller.play();
     }
   }
 
+  /// Suspends the native encoder while the editor is paused so idle time is never encoded.
+  Future<void> _setNativeRecordingPaused(bool paused) async {
+    try {
+      await _channel.invokeMethod(paused ? 'pauseScreenRecording' : 'resumeScreenRecording');
+    } catch (e) {
+      print('Error ${paused ? 'pausing' : 'resuming'} recording: $e');
+    }
+  }
+
   Future<String?> _saveCurrentFrame(int timestamp) async {
     try {
       if (state.controller == null || state.originalVideoPath == null) return null;
-      final image = await VideoThumbnail.thumbnailData(
-        video: state.originalVideoPath!,
-        imageFormat: ImageFormat.PNG,
-        quality: 100,
-        timeMs: timestamp,
-      );
-      if (image == null) return null;
       final dir = await getTemporaryDirectory();
-      final file = File('${dir.path}/pause_frame_$timestamp.png');
-      await file.writeAsBytes(image);
-      return file.path;
+      // Decoded and encoded natively on a retriever kept open for this video, see FrameGrabber
+      return await _frameGrabberChannel.invokeMethod<String>('saveFrame', {
+        'path': state.originalVideoPath,
+        'timestampMs': timestamp,
+        'outputPath': '${dir.path}/pause_frame_$timestamp.jpg',
+        'format': 'jpeg',
+        'quality': 90,
+      });
     } catch (e) {
       print('Error saving frame: $e');
       return null;
@@ -124,6 +221,17 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
   }
 
   Future<String?> _captureFrameWithDrawing(BuildContext context, GlobalKey videoKey, int timestamp) async {
+    try {
+      final dir = await getTemporaryDirectory();
+      // Read back from the recording pipeline and encoded natively, off the UI thread
+      return await _channel.invokeMethod<String>('captureSnapshot', {
+        'outputPath': '${dir.path}/annotated_frame_$timestamp.jpg',
+        'format': 'jpeg',
+        'quality': 90,
+      });
+    } catch (e) {
+      print('Native snapshot unavailable, capturing the view: $e');
+    }
     try {
       final boundary = videoKey.currentContext?.findRenderObject() as RenderRepaintBoundary?;
       if (boundary == null) return null;
@@ -145,11 +253,19 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
     final updatedLines = List<Map<String, dynamic>>.from(state.lines);
     updatedLines.add({'drawing': drawing, 'timestamp': timestamp});
     emit(state.copyWith(lines: updatedLines));
+    _strokesChannel.send(encodeStrokeBatch(kStrokeOpAppend, [MapEntry(timestamp, drawing)]));
+  }
+
+  // Mirrors state.lines on the native side, packed, so rendering does not resend them as maps
+  Future<void> _syncStrokes() {
+    return _strokesChannel.send(encodeStrokeBatch(
+      kStrokeOpReplace,
+      state.lines.map((line) => MapEntry(line['timestamp'] as int, line['drawing'] as DrawingItem)),
+    ));
   }
 
   Future<void> startRecording(BuildContext context, Rect videoRect) async {
-    final controller = state.controller;
-    if (controller == null || !controller.value.isInitialized) return;
+    if (state.controller == null || !state.controller!.value.isInitialized || _startingRecording) return;
 
     bool hasPermission = await _requestStoragePermission();
     if (!hasPermission) {
@@ -158,13 +274,37 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
       return;
     }
 
+    _startingRecording = true;
+    try {
+      await _switchToOriginal();
+    } catch (e) {
+      _startingRecording = false;
+      print('Error reopening the original for recording: $e');
+      showErrorSnackBar(context, "Failed to start recording: $e");
+      return;
+    }
+    final controller = state.controller;
+    if (controller == null) {
+      _startingRecording = false;
+      return;
+    }
+
+    _recordingStatusSubscription?.cancel();
+    _recordingStatusSubscription = _recordingStatusChannel.receiveBroadcastStream().listen((event) {
+      _onRecordingStatus(context, event as Map);
+    });
+
     try {
       print('Starting recording with rect: $videoRect');
+      // The clip records the rest of the video; pauses stop the recording, so they add nothing
+      final remaining = controller.value.duration - controller.value.position;
       await _channel.invokeMethod('startScreenRecording', {
         'left': videoRect.left.toInt(),
         'top': videoRect.top.toInt(),
         'width': videoRect.width.toInt(),
         'height': videoRect.height.toInt(),
+        'preset': 'balanced',
+        if (remaining > Duration.zero) 'expectedDurationMs': remaining.inMilliseconds,
       });
       emit(state.copyWith(
         isRecording: true,
@@ -177,6 +317,23 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
       print('Error starting recording: $e');
       showErrorSnackBar(context, "Failed to start recording: $e");
       emit(state.copyWith(isRecording: false));
+    } finally {
+      _startingRecording = false;
+    }
+  }
+
+  void _onRecordingStatus(BuildContext context, Map event) {
+    final status = event['status'] as String?;
+    final message = event['message'] as String? ?? 'Recording failed';
+    print('Recording status: $status ${event['message'] ?? ''}');
+    if (status == 'refused' || status == 'error') {
+      if (!state.isRecording) return;
+      state.controller?.pause();
+      emit(state.copyWith(isRecording: false));
+      if (context.mounted) showErrorSnackBar(context, "Failed to start recording: $message");
+    } else if (status == 'stopped') {
+      // Stopped natively, e.g. on a full disk; stopRecording still collects the clip
+      if (context.mounted) showErrorSnackBar(context, message);
     }
   }
 
@@ -188,8 +345,15 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
     print('Stopping recording...');
 
     try {
-      final String? outputPath = await _channel.invokeMethod('stopScreenRecording');
+      final Map<dynamic, dynamic>? recording =
+          await _channel.invokeMethod('stopScreenRecording', {'detailed': true});
+      final String? outputPath = recording?['path'] as String?;
       print('Received outputPath from platform: $outputPath');
+      // Bitrate and frame rate steps taken live for heat, battery or storage
+      final List<dynamic> adaptations = recording?['adaptations'] as List<dynamic>? ?? const [];
+      for (final adaptation in adaptations) {
+        print('Recording adapted: $adaptation');
+      }
       controller.pause();
 
       if (outputPath != null && File(outputPath).existsSync()) {
@@ -198,8 +362,11 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
         print('Gallery save result: $saved');
         if (saved == true) {
           showSuccessSnackBar(context, "Video saved to gallery in aiTacticals album");
-          await File(outputPath).delete();
-          print('Temporary file deleted: $outputPath');
+          // Pre-Android 10 exports move the file into the gallery instead of copying it
+          if (await File(outputPath).exists()) {
+            await File(outputPath).delete();
+            print('Temporary file deleted: $outputPath');
+          }
         } else {
           throw Exception("Failed to save video to gallery");
         }
@@ -216,6 +383,39 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
     }
   }
 
+  /// Burns the drawings into the source video natively, faster than real time, and saves the
+  /// result to the gallery. [viewSize] is the size of the editor view the drawings were made in.
+  Future<void> renderAnnotatedVideo(BuildContext context, Size viewSize) async {
+    final sourcePath = state.originalVideoPath;
+    if (sourcePath == null) return;
+    try {
+      await _syncStrokes();
+      final String? outputPath = await _channel.invokeMethod('renderAnnotatedVideo', {
+        'sourcePath': sourcePath,
+        'viewWidth': viewSize.width,
+        'viewHeight': viewSize.height,
+        'preset': 'balanced',
+        'pauses': state.pauseSegments
+            .map((segment) => {
+                  'positionMs': segment.position.inMilliseconds,
+                  'durationMs': segment.duration.inMilliseconds,
+                })
+            .toList(),
+        'useStreamedStrokes': true,
+      });
+      if (outputPath == null) throw Exception("Render produced no output");
+      final saved = await _saveVideoToGallery(outputPath, albumName: 'aiTacticals');
+      if (saved != true) throw Exception("Failed to save video to gallery");
+      showSuccessSnackBar(context, "Video saved to gallery in aiTacticals album");
+      if (await File(outputPath).exists()) {
+        await File(outputPath).delete();
+      }
+    } catch (e) {
+      print('Error rendering annotated video: $e');
+      showErrorSnackBar(context, "Failed to render video: $e");
+    }
+  }
+
   Future<bool?> _saveVideoToGallery(String path, {String? albumName}) async {
     if (path.isEmpty) {
       throw ArgumentError('Please provide valid file path.');
@@ -224,6 +424,17 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
       throw ArgumentError('File does not exist at path: $path');
     }
 
+    final exportId = 'export_${DateTime.now().millisecondsSinceEpoch}';
+    final StreamSubscription progressSubscription =
+        _exportProgressChannel.receiveBroadcastStream().listen((event) {
+      if (event is Map && event['exportId'] == exportId && event['state'] == 'progress') {
+        final int total = event['totalBytes'] ?? 0;
+        if (total > 0) {
+          emit(state.copyWith(exportProgress: (event['bytesCopied'] as int) / total));
+        }
+      }
+    });
+
     try {
       bool? result = await _gallerySaverChannel.invokeMethod(
         'saveVideo',
@@ -231,6 +442,7 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
           'path': path,
           'albumName': albumName ?? 'aiTacticals',
           'toDcim': false,
+          'exportId': exportId,
         },
       );
       print('Gallery save result: $result');
@@ -238,6 +450,8 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
     } catch (e) {
       print('Error saving video to gallery: $e');
       rethrow;
+    } finally {
+      await progressSubscription.cancel();
     }
   }
 
@@ -272,26 +486,43 @@ class VideoEditingCubit extends Cubit<VideoEditingState> {
 
   void resetState() {
     state.controller?.dispose();
+    if (state.originalVideoPath != null) {
+      _frameGrabberChannel.invokeMethod('releaseVideo', {'path': state.originalVideoPath});
+      _channel.invokeMethod('cancelProxy', {'path': state.originalVideoPath});
+    }
+    _keyframes = null;
+    _playingProxy = false;
+    _startingRecording = false;
+    _recordingStatusSubscription?.cancel();
+    _recordingStatusSubscription = null;
     emit(VideoEditingState());
   }
 
+  KeyframeIndex? get keyframeIndex => _keyframes;
+
   void seekBackward() {
     if (state.controller == null) return;
     final newPosition = (state.controller!.value.position.inMilliseconds - 10000)
         .clamp(0, state.controller!.value.duration.inMilliseconds);
-    state.controller!.seekTo(Duration(milliseconds: newPosition));
+    _seekTo(newPosition, _keyframes?.floor(newPosition));
   }
 
   void seekForward() {
     if (state.controller == null) return;
     final newPosition = (state.controller!.value.position.inMilliseconds + 10000)
         .clamp(0, state.controller!.value.duration.inMilliseconds);
-    state.controller!.seekTo(Duration(milliseconds: newPosition));
+    _seekTo(newPosition, _keyframes?.ceiling(newPosition));
+  }
+
+  void _seekTo(int positionMs, int? keyframeMs) {
+    final target = keyframeMs != null && (keyframeMs - positionMs).abs() <= _maxSnapMs ? keyframeMs : positionMs;
+    state.controller!.seekTo(Duration(milliseconds: target));
   }
 
   void removeDrawingForTimestamp(DrawingItem drawing, int timestamp) {
     final updatedLines = List<Map<String, dynamic>>.from(state.lines)
       ..removeWhere((line) => line['timestamp'] == timestamp && line['drawing'] == drawing);
     emit(state.copyWith(lines: updatedLines));
+    _syncStrokes();
   }
 }
\ No newline at end of file
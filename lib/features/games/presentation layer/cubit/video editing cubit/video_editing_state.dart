@@ -14,6 +14,7 @@ class VideoEditingState {
   final List<PauseSegment> pauseSegments;
   final Duration? pauseStartTime;
   final List<Map<String, dynamic>> lines;
+  final double? exportProgress;
 
   VideoEditingState({
     this.controller,
@@ -28,6 +29,7 @@ class VideoEditingState {
     this.pauseSegments = const [],
     this.pauseStartTime,
     this.lines = const [],
+    this.exportProgress,
   });
 
   VideoEditingState copyWith({
@@ -43,6 +45,7 @@ class VideoEditingState {
     List<PauseSegment>? pauseSegments,
     Duration? pauseStartTime,
     List<Map<String, dynamic>>? lines,
+    double? exportProgress,
   }) {
     return VideoEditingState(
       controller: controller ?? this.controller,
@@ -57,6 +60,7 @@ class VideoEditingState {
       pauseSegments: pauseSegments ?? this.pauseSegments,
       pauseStartTime: pauseStartTime ?? this.pauseStartTime,
       lines: lines ?? this.lines,
+      exportProgress: exportProgress ?? this.exportProgress,
     );
   }
 }